@@ -18,33 +18,1333 @@
 // default package
 
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
 import java.lang.System.Logger.Level;
+import java.lang.module.FindException;
+import java.lang.module.ModuleDescriptor;
 import java.lang.module.ModuleFinder;
+import java.lang.module.ModuleReference;
 import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.DirectoryNotEmptyException;
-import java.nio.file.FileSystems;
 import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.nio.file.attribute.FileTime;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Deque;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.function.Predicate;
 import java.util.regex.Pattern;
 import java.util.spi.ToolProvider;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/** Entry point of the source launcher, which runs the first class declared in this file. */
+class Launcher {
+  public static void main(String... args) {
+    Bach.main(args);
+  }
+}
+
+/** Local Maven repository with an in-memory index of its artifact directories. */
+final class LocalRepository {
+
+  /** Root directory of this repository. */
+  final Path root;
+
+  private final Map<Path, Set<String>> index = new ConcurrentHashMap<>();
+
+  LocalRepository(Path root) {
+    this.root = root;
+  }
+
+  /** Return path to the JAR file of the supplied Maven coordinates or {@code null}. */
+  Path find(String group, String artifact, String version) {
+    if (version == null) {
+      return null; // unknown version, let the downloader resolve the coordinates
+    }
+    var directory = root.resolve(group.replace('.', '/')).resolve(artifact).resolve(version);
+    var file = artifact + "-" + version + ".jar";
+    return list(directory).contains(file) ? directory.resolve(file) : null;
+  }
+
+  /** List names of files in the directory, each directory is read at most once. */
+  private Set<String> list(Path directory) {
+    return index.computeIfAbsent(
+        directory,
+        __ -> {
+          if (!Files.isDirectory(directory)) {
+            return Set.of();
+          }
+          try (var stream = Files.list(directory)) {
+            return stream.map(path -> path.getFileName().toString()).collect(Collectors.toSet());
+          } catch (IOException e) {
+            throw new UncheckedIOException(e);
+          }
+        });
+  }
+}
+
+/** Content-addressed artifact store keyed by SHA-256 hashes. */
+final class Store {
+
+  /** Root directory of this store. */
+  final Path root;
+
+  Store(Path root) {
+    this.root = root;
+  }
+
+  /** Return the path of the partially transferred content of the supplied uri. */
+  Path partial(URI uri) throws Exception {
+    return Files.createDirectories(root.resolve("partial")).resolve(key(uri) + ".part");
+  }
+
+  /**
+   * Remember the entry the content of the supplied uri was stored as.
+   *
+   * @param verified algorithm of the published checksum the content was verified with, or {@code
+   *     null} if the host didn't publish one
+   */
+  void remember(URI uri, String sha256, String verified) throws Exception {
+    var line = verified == null ? sha256 : sha256 + " " + verified;
+    Files.writeString(Files.createDirectories(root.resolve("uri")).resolve(key(uri)), line);
+  }
+
+  /**
+   * Return the intact entry remembered for the supplied uri or {@code null}.
+   *
+   * <p>Only content-addressed entries, those verified with a published checksum, and entries
+   * remembered within the time-to-live are returned.
+   */
+  Path find(URI uri, Duration ttl) throws Exception {
+    var file = root.resolve("uri").resolve(key(uri));
+    if (Files.notExists(file)) {
+      return null;
+    }
+    var line = Files.readString(file).strip().split(" ");
+    if (line.length == 1) {
+      var remembered = Files.getLastModifiedTime(file).toInstant();
+      if (remembered.plus(ttl).isBefore(Instant.now())) {
+        return null;
+      }
+    }
+    return find("sha256", line[0]);
+  }
+
+  /** Move verified temporary file into this store and return the path of the entry. */
+  Path add(Path temp, String sha256, String sha1) throws IOException {
+    var entry = Files.createDirectories(root.resolve("sha256")).resolve(sha256);
+    Files.move(temp, entry, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    Files.writeString(Files.createDirectories(root.resolve("sha1")).resolve(sha1), sha256);
+    return entry;
+  }
+
+  /** Return the intact entry for the supplied checksum or {@code null}. */
+  Path find(String algorithm, String hash) throws Exception {
+    var sha256 = hash;
+    if (algorithm.equals("sha1")) {
+      var alias = root.resolve("sha1").resolve(hash);
+      if (Files.notExists(alias)) {
+        return null;
+      }
+      sha256 = Files.readString(alias).strip();
+    }
+    var entry = root.resolve("sha256").resolve(sha256);
+    if (Files.notExists(entry)) {
+      return null;
+    }
+    // entries may have been modified via hard links, verify before reuse
+    if (!sha256.equals(hash("SHA-256", entry))) {
+      Files.delete(entry);
+      return null;
+    }
+    return entry;
+  }
+
+  private static String key(URI uri) throws Exception {
+    return digest(uri.toString());
+  }
+
+  /** Return lower-case hexadecimal representation of the supplied bytes. */
+  static String hex(byte[] bytes) {
+    var builder = new StringBuilder(bytes.length * 2);
+    for (var b : bytes) {
+      builder.append(Character.forDigit((b >> 4) & 0xF, 16));
+      builder.append(Character.forDigit(b & 0xF, 16));
+    }
+    return builder.toString();
+  }
+
+  /** Compute SHA-256 message digest of the supplied text as a hexadecimal string. */
+  static String digest(String text) throws Exception {
+    var bytes = text.getBytes(StandardCharsets.UTF_8);
+    return hex(MessageDigest.getInstance("SHA-256").digest(bytes));
+  }
+
+  /** Compute message digest of the supplied file's content as a hexadecimal string. */
+  static String hash(String algorithm, Path file) throws Exception {
+    var digest = MessageDigest.getInstance(algorithm);
+    try (var stream = new DigestInputStream(Files.newInputStream(file), digest)) {
+      stream.transferTo(OutputStream.nullOutputStream());
+    }
+    return hex(digest.digest());
+  }
+
+  /** Materialize the source at the target path: hard link, symbolic link or copy. */
+  static String link(Path source, Path target) throws IOException {
+    // materialize next to the target, then replace it in one atomic step
+    var temp = target.resolveSibling("." + target.getFileName() + ".link");
+    Files.deleteIfExists(temp);
+    var kind = "copy";
+    try {
+      Files.createLink(temp, source);
+      kind = "hard link";
+    } catch (UnsupportedOperationException | IOException e) {
+      try {
+        Files.createSymbolicLink(temp, source.toAbsolutePath());
+        kind = "symbolic link";
+      } catch (UnsupportedOperationException | IOException e2) {
+        Files.copy(source, temp, StandardCopyOption.COPY_ATTRIBUTES);
+      }
+    }
+    Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    return kind;
+  }
+
+  /** Write properties to a temporary sibling file and move it into place atomically. */
+  static void writeProperties(Path file, Properties properties, String comments)
+      throws IOException {
+    var name = file.getFileName().toString();
+    var temp = Files.createTempFile(file.toAbsolutePath().getParent(), name, ".tmp");
+    try {
+      try (var writer = Files.newBufferedWriter(temp)) {
+        properties.store(writer, comments);
+      }
+      Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(temp);
+    }
+  }
+}
+
+/**
+ * Exclusive lock on a path shared by all threads of this and of other processes.
+ *
+ * <p>The lock is reentrant for the thread holding it. Its lock file is deleted on final release.
+ */
+final class PathLock {
+
+  private static final Map<Path, PathLock> LOCKS = new ConcurrentHashMap<>();
+
+  /** Acquire lock of the supplied path, blocking until it is available. */
+  static PathLock acquire(Path cacheHome, Path path) throws Exception {
+    var file = file(cacheHome, path);
+    var lock = LOCKS.computeIfAbsent(path.toAbsolutePath().normalize(), __ -> new PathLock(file));
+    // file locks are held by the whole virtual machine, threads are serialized before
+    lock.local.lockInterruptibly();
+    if (lock.local.getHoldCount() > 1) {
+      return lock;
+    }
+    try {
+      lock.channel = lock(lock.file);
+      return lock;
+    } catch (Exception e) {
+      lock.local.unlock();
+      throw e;
+    }
+  }
+
+  /** Return the lock file in the cache home directory guarding the supplied path. */
+  static Path file(Path cacheHome, Path path) throws Exception {
+    var name = Store.digest(path.toAbsolutePath().normalize().toString()) + ".lock";
+    return cacheHome.resolve("lock").resolve(name);
+  }
+
+  /** Lock the file, retrying while another process deletes it on release. */
+  private static FileChannel lock(Path file) throws Exception {
+    var token = UUID.randomUUID().toString();
+    while (true) {
+      Files.createDirectories(file.getParent());
+      var channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+      try {
+        // lock a region beyond the token, so the token is readable on all platforms
+        channel.lock(Long.MAX_VALUE - 1, 1, false);
+        channel.truncate(0).write(ByteBuffer.wrap(token.getBytes(StandardCharsets.UTF_8)), 0);
+        if (Files.exists(file) && token.equals(Files.readString(file))) {
+          return channel;
+        }
+      } catch (NoSuchFileException e) {
+        // deleted by the previous holder after we opened it
+      } catch (Exception e) {
+        channel.close();
+        throw e;
+      }
+      channel.close();
+    }
+  }
+
+  private final Path file;
+  private final ReentrantLock local = new ReentrantLock();
+  private FileChannel channel;
+
+  private PathLock(Path file) {
+    this.file = file;
+  }
+
+  /** Release this lock, the last release of the holding thread deletes the lock file. */
+  void release() throws IOException {
+    if (!local.isHeldByCurrentThread()) {
+      throw new IllegalStateException("Lock not held by current thread: " + file);
+    }
+    try {
+      if (local.getHoldCount() == 1) {
+        try {
+          // delete while still locked, waiting processes notice and lock a new file
+          Files.deleteIfExists(file);
+        } catch (IOException e) {
+          // some platforms don't delete open files, the next holder reuses it
+        } finally {
+          channel.close();
+          channel = null;
+        }
+      }
+    } finally {
+      local.unlock();
+    }
+  }
+}
+
+/** Concurrent downloader sharing a single HTTP client. */
+final class Downloader {
+
+  /** Module java.net.http is present, jshell doesn't resolve it by default. */
+  static final boolean HTTP_CLIENT = ModuleLayer.boot().findModule("java.net.http").isPresent();
+
+  /** HTTP/2 client multiplexing concurrent requests to the same host, or {@code null}. */
+  final HttpClient client;
+
+  /** Maximum number of concurrent transfers per host. */
+  final int limit;
+
+  /** Content-addressed store all transfers are committed to. */
+  final Store store;
+
+  /** Time-to-live of release artifacts, within which no request is sent at all. */
+  final Duration ttl;
+
+  /** Timeout of connecting and of awaiting response headers. */
+  final Duration timeout;
+
+  /** Directory holding the lock files of partial transfers. */
+  Path cacheHome;
+
+  private final ExecutorService executor;
+  private final Map<String, Semaphore> hosts = new ConcurrentHashMap<>();
+  private final Map<Path, CompletableFuture<Path>> flights = new ConcurrentHashMap<>();
+  private final Set<String> unpublishedChecksums = ConcurrentHashMap.newKeySet();
+
+  Downloader(int limit, Store store, Duration ttl, Duration timeout) {
+    this.limit = limit;
+    this.store = store;
+    this.ttl = ttl;
+    this.timeout = timeout;
+    this.executor =
+        Executors.newCachedThreadPool(
+            runnable -> {
+              var thread = new Thread(runnable, "bach-download");
+              thread.setDaemon(true);
+              return thread;
+            });
+    // without java.net.http, all transfers use plain URL connections
+    this.client =
+        !HTTP_CLIENT
+            ? null
+            : HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .connectTimeout(timeout)
+                .executor(executor)
+                .build();
+  }
+
+  /** Download file from the first of the supplied uris that succeeds, trying them in order. */
+  CompletableFuture<Path> download(
+      Consumer<String> logger, boolean offline, Path destination, List<URI> uris) {
+    var future = download(logger, offline, destination, uris.get(0));
+    for (var uri : uris.subList(1, uris.size())) {
+      future =
+          future
+              .handle(
+                  (path, throwable) -> {
+                    if (throwable == null) {
+                      return CompletableFuture.completedFuture(path);
+                    }
+                    logger.accept(String.format("Trying next mirror %s: %s", uri, throwable));
+                    return download(logger, offline, destination, uri);
+                  })
+              .thenCompose(Function.identity());
+    }
+    return future;
+  }
+
+  /** Download file asynchronously, joining a transfer of the same target already in flight. */
+  CompletableFuture<Path> download(
+      Consumer<String> logger, boolean offline, Path destination, URI uri) {
+    logger.accept("download(" + uri + ")");
+    Path target;
+    try {
+      target = Files.createDirectories(destination).resolve(extractFileName(uri));
+      if (!uri.isAbsolute()) {
+        throw new IllegalArgumentException("URI is not absolute: " + uri);
+      }
+    } catch (Exception e) {
+      return CompletableFuture.failedFuture(e);
+    }
+    var key = target.toAbsolutePath().normalize();
+    var future = new CompletableFuture<Path>();
+    var flight = flights.putIfAbsent(key, future);
+    if (flight != null) {
+      logger.accept("Joining download in flight: " + target);
+      return flight;
+    }
+    executor.execute(
+        () -> {
+          try {
+            var path = transfer(logger, offline, target, uri);
+            flights.remove(key, future);
+            future.complete(path);
+          } catch (Throwable throwable) {
+            flights.remove(key, future);
+            future.completeExceptionally(throwable);
+          }
+        });
+    return future;
+  }
+
+  /** Transfer remote file to target unless an up-to-date copy already exists. */
+  private Path transfer(Consumer<String> logger, boolean offline, Path target, URI uri)
+      throws Exception {
+    if (offline) {
+      if (Files.exists(target)) {
+        if (loadMetadata(target, uri) == null) {
+          verifyArchive(target);
+        }
+        logger.accept("Offline mode is active and target already exists.");
+        return target;
+      }
+      throw new IllegalStateException("Target is missing and being offline: " + target);
+    }
+    var scheme = uri.getScheme().toLowerCase();
+    if (scheme.equals("file")) {
+      return transferFile(logger, target, uri);
+    }
+    if (client == null || !scheme.equals("http") && !scheme.equals("https")) {
+      return transferConnection(logger, target, uri);
+    }
+    return transferLocked(logger, target, uri);
+  }
+
+  /** Transfer via HTTP with the partial file of the uri locked. */
+  private Path transferLocked(Consumer<String> logger, Path target, URI uri) throws Exception {
+    var part = store.partial(uri);
+    // transfers of the same uri share the partial file, also with other processes
+    var lock = PathLock.acquire(cacheHome, part);
+    try {
+      // a transfer that completed while waiting for the lock is reused right here
+      var metadata = loadMetadata(target, uri);
+      if (metadata != null && isFresh(metadata, uri)) {
+        logger.accept(String.format("Metadata of %s is fresh, skipping request.", target));
+        logger.accept(String.format("Already downloaded %s previously.", target.getFileName()));
+        return target;
+      }
+      if (Files.notExists(target) && isRelease(uri)) {
+        var entry = store.find(uri, ttl);
+        if (entry != null) {
+          var kind = Store.link(entry, target);
+          storeMetadata(target, uri, null, null);
+          logger.accept(String.format("Materialized %s as %s from %s", target, kind, entry));
+          logger.accept(String.format("Downloaded %s successfully.", target.getFileName()));
+          return target;
+        }
+      }
+      return transferHttp(logger, target, uri, metadata, part);
+    } finally {
+      lock.release();
+    }
+  }
+
+  /** Transfer via HTTP, sending a conditional request if metadata of the target exists. */
+  private Path transferHttp(
+      Consumer<String> logger, Path target, URI uri, Properties metadata, Path part)
+      throws Exception {
+    var permits = hosts.computeIfAbsent(uri.getHost(), __ -> new Semaphore(limit));
+    permits.acquire();
+    try {
+      var builder = HttpRequest.newBuilder(uri).timeout(timeout).GET();
+      if (metadata != null) {
+        var etag = metadata.getProperty("etag");
+        var modified = metadata.getProperty("last-modified");
+        if (etag != null) {
+          builder.header("If-None-Match", etag);
+        }
+        if (modified != null) {
+          builder.header("If-Modified-Since", modified);
+        }
+      }
+      var response = client.send(builder.build(), HttpResponse.BodyHandlers.ofInputStream());
+      try (var sourceStream = response.body()) {
+        if (response.statusCode() == 304) {
+          logger.accept(String.format("Remote source not modified: %s", uri));
+          logger.accept(String.format("Already downloaded %s previously.", target.getFileName()));
+          storeMetadata(target, uri, response.headers());
+          return target;
+        }
+        if (response.statusCode() != 200) {
+          throw new IOException("HTTP " + response.statusCode() + " for " + uri);
+        }
+        var lastModified = lastModified(response.headers());
+        if (!isCurrent(logger, target, lastModified)) {
+          transferVerified(logger, response, lastModified, target, uri, part);
+        }
+        storeMetadata(target, uri, response.headers());
+        return target;
+      }
+    } finally {
+      permits.release();
+    }
+  }
+
+  /** Transfer or link from store, guarded by the published checksum if there's one. */
+  private void transferVerified(
+      Consumer<String> logger,
+      HttpResponse<InputStream> response,
+      FileTime lastModified,
+      Path target,
+      URI uri,
+      Path part)
+      throws Exception {
+    // published checksum of an artifact already stored? link it, skip the transfer
+    var checksum = fetchChecksum(uri);
+    if (checksum != null) {
+      var entry = store.find(checksum[0], checksum[1]);
+      if (entry != null) {
+        // the entry's timestamp is shared by all its links, it is set once when stored
+        var kind = Store.link(entry, target);
+        store.remember(uri, entry.getFileName().toString(), checksum[0]);
+        logger.accept(String.format("Materialized %s as %s from %s", target, kind, entry));
+        logger.accept(String.format("Downloaded %s successfully.", target.getFileName()));
+        return;
+      }
+    }
+    logger.accept("Transferring " + uri);
+    Files.copy(response.body(), part, StandardCopyOption.REPLACE_EXISTING);
+    commit(logger, part, lastModified, target, uri, checksum);
+  }
+
+  /** Fail if the target, lacking a completion marker, is an incomplete archive. */
+  private static void verifyArchive(Path target) {
+    var name = target.getFileName().toString();
+    if (!name.endsWith(".jar") && !name.endsWith(".zip")) {
+      return;
+    }
+    try (var zip = new ZipFile(target.toFile())) {
+      zip.size();
+    } catch (IOException e) {
+      throw new IllegalStateException("Target is incomplete and being offline: " + target, e);
+    }
+  }
+
+  /** Return the hidden metadata file stored next to the target. */
+  static Path metadataFile(Path target) {
+    return target.resolveSibling("." + target.getFileName() + ".download");
+  }
+
+  /** Load metadata of the target if it describes the existing file downloaded from uri. */
+  private static Properties loadMetadata(Path target, URI uri) throws IOException {
+    var file = metadataFile(target);
+    if (Files.notExists(target) || Files.notExists(file)) {
+      return null;
+    }
+    var metadata = new Properties();
+    try (var reader = Files.newBufferedReader(file)) {
+      metadata.load(reader);
+    }
+    var size = String.valueOf(Files.size(target));
+    var modified = String.valueOf(Files.getLastModifiedTime(target).toMillis());
+    if (!uri.toString().equals(metadata.getProperty("uri"))
+        || !size.equals(metadata.getProperty("size"))
+        || !modified.equals(metadata.getProperty("modified"))) {
+      return null;
+    }
+    return metadata;
+  }
+
+  /**
+   * Test whether the uri addresses a versioned artifact in a Maven repository layout.
+   *
+   * <p>Such release artifacts are immutable: {@code .../<artifact>/<version>/<artifact>-<version>
+   * [-<classifier>].<type>} with a version not being a snapshot. All other uris, like branch heads
+   * of source repositories, may change at any time.
+   */
+  static boolean isRelease(URI uri) {
+    var path = uri.getPath();
+    if (path == null || path.contains("SNAPSHOT")) {
+      return false;
+    }
+    var segments = path.split("/");
+    var n = segments.length;
+    if (n < 5) { // "", group, artifact, version, file
+      return false;
+    }
+    var prefix = segments[n - 3] + "-" + segments[n - 2];
+    var file = segments[n - 1];
+    return file.startsWith(prefix + ".") || file.startsWith(prefix + "-");
+  }
+
+  /** Trust metadata of release artifacts for the time-to-live, revalidate all others. */
+  private boolean isFresh(Properties metadata, URI uri) {
+    if (!isRelease(uri)) {
+      return false;
+    }
+    var checked = Instant.ofEpochMilli(Long.parseLong(metadata.getProperty("checked", "0")));
+    return checked.plus(ttl).isAfter(Instant.now());
+  }
+
+  /** Record validators of the response and the state of the target next to it. */
+  private static void storeMetadata(Path target, URI uri, HttpHeaders headers) throws IOException {
+    var etag = headers.firstValue("ETag").orElse(null);
+    storeMetadata(target, uri, etag, headers.firstValue("Last-Modified").orElse(null));
+  }
+
+  /** Record the validators, each may be {@code null}, and the state of the target. */
+  private static void storeMetadata(Path target, URI uri, String etag, String lastModified)
+      throws IOException {
+    var metadata = new Properties();
+    metadata.setProperty("uri", uri.toString());
+    if (etag != null) {
+      metadata.setProperty("etag", etag);
+    }
+    if (lastModified != null) {
+      metadata.setProperty("last-modified", lastModified);
+    }
+    metadata.setProperty("checked", String.valueOf(System.currentTimeMillis()));
+    metadata.setProperty("size", String.valueOf(Files.size(target)));
+    metadata.setProperty("modified", String.valueOf(Files.getLastModifiedTime(target).toMillis()));
+    // the metadata file doubles as marker of a completed transfer
+    Store.writeProperties(metadataFile(target), metadata, "Bach.java download metadata");
+  }
+
+  /**
+   * Fetch Maven-style {@code .sha256} or {@code .sha1} checksum of the uri or {@code null}.
+   *
+   * <p>A kind of checksum a host answered with 404 once is not requested from it again.
+   */
+  private String[] fetchChecksum(URI uri) throws Exception {
+    for (var algorithm : List.of("sha256", "sha1")) {
+      var unpublished = uri.getAuthority() + " " + algorithm;
+      if (unpublishedChecksums.contains(unpublished)) {
+        continue;
+      }
+      var checksum = URI.create(uri + "." + algorithm);
+      var request = HttpRequest.newBuilder(checksum).timeout(timeout).GET().build();
+      var response = client.send(request, HttpResponse.BodyHandlers.ofString());
+      if (response.statusCode() == 200) {
+        var body = response.body().strip();
+        var hash = body.split("\\s+")[0].toLowerCase();
+        if (hash.length() == (algorithm.equals("sha256") ? 64 : 40)) {
+          return new String[] {algorithm, hash};
+        }
+      }
+      if (response.statusCode() == 404) {
+        unpublishedChecksums.add(unpublished);
+      }
+    }
+    return null;
+  }
+
+  /** Link file of a local repository, no need to store another copy of it. */
+  private Path transferFile(Consumer<String> logger, Path target, URI uri) throws Exception {
+    var source = Path.of(uri);
+    if (!Files.isRegularFile(source)) {
+      throw new IOException("File not found: " + source);
+    }
+    var lastModified = Files.getLastModifiedTime(source);
+    if (isCurrent(logger, target, lastModified)) {
+      return target;
+    }
+    var kind = Store.link(source, target);
+    storeMetadata(target, uri, null, null);
+    logger.accept(String.format("Linked %s as %s from %s", target, kind, source));
+    logger.accept(String.format("Downloaded %s successfully.", target.getFileName()));
+    return target;
+  }
+
+  /** Transfer file using a plain URL connection, for {@code jar} or without HTTP client. */
+  private Path transferConnection(Consumer<String> logger, Path target, URI uri) throws Exception {
+    var connection = uri.toURL().openConnection();
+    try (var sourceStream = connection.getInputStream()) {
+      var lastModified = lastModified(connection.getLastModified());
+      if (isCurrent(logger, target, lastModified)) {
+        return target;
+      }
+      var part = store.partial(uri);
+      var lock = PathLock.acquire(cacheHome, part);
+      try {
+        logger.accept("Transferring " + uri);
+        Files.copy(sourceStream, part, StandardCopyOption.REPLACE_EXISTING);
+        commit(logger, part, lastModified, target, uri, null);
+      } finally {
+        lock.release();
+      }
+      var etag = connection.getHeaderField("ETag");
+      storeMetadata(target, uri, etag, connection.getHeaderField("Last-Modified"));
+      return target;
+    }
+  }
+
+  /** Return the remote last modified time, malformed values are ignored as RFC 7232 says. */
+  private static FileTime lastModified(HttpHeaders headers) {
+    var value = headers.firstValue("Last-Modified").orElse(null);
+    if (value == null) {
+      return lastModified(0);
+    }
+    try {
+      var time = ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME);
+      return lastModified(time.toInstant().toEpochMilli());
+    } catch (DateTimeParseException e) {
+      return lastModified(0);
+    }
+  }
+
+  private static FileTime lastModified(long millis) {
+    return FileTime.fromMillis(millis == 0 ? System.currentTimeMillis() : millis);
+  }
+
+  /** Test whether target exists and carries the remote last modified timestamp. */
+  private static boolean isCurrent(Consumer<String> logger, Path target, FileTime lastModified)
+      throws IOException {
+    if (Files.notExists(target)) {
+      return false;
+    }
+    logger.accept("Local target file exists. Comparing last modified timestamps...");
+    var fileModified = Files.getLastModifiedTime(target);
+    logger.accept(" o Remote Last Modified -> " + lastModified);
+    logger.accept(" o Target Last Modified -> " + fileModified);
+    if (fileModified.equals(lastModified)) {
+      logger.accept(String.format("Already downloaded %s previously.", target.getFileName()));
+      return true;
+    }
+    logger.accept("Local target file differs from remote source -- replacing it...");
+    return false;
+  }
+
+  /** Verify the completed part file, move it into the store, and link the target. */
+  private void commit(
+      Consumer<String> logger,
+      Path part,
+      FileTime lastModified,
+      Path target,
+      URI uri,
+      String[] checksum)
+      throws Exception {
+    var sha256 = MessageDigest.getInstance("SHA-256");
+    var sha1 = MessageDigest.getInstance("SHA-1");
+    try (var stream = new DigestInputStream(Files.newInputStream(part), sha256)) {
+      new DigestInputStream(stream, sha1).transferTo(OutputStream.nullOutputStream());
+    }
+    var hash256 = Store.hex(sha256.digest());
+    var hash1 = Store.hex(sha1.digest());
+    if (checksum != null) {
+      var actual = checksum[0].equals("sha256") ? hash256 : hash1;
+      if (!actual.equals(checksum[1])) {
+        Files.deleteIfExists(part);
+        throw new IllegalStateException(
+            String.format(
+                "%s checksum mismatch for %s: expected %s, but got %s",
+                checksum[0], uri, checksum[1], actual));
+      }
+      logger.accept(String.format(" o Verified -> %s %s", checksum[0], actual));
+    }
+    var entry = store.add(part, hash256, hash1);
+    Files.setLastModifiedTime(entry, lastModified); // before any other target links it
+    store.remember(uri, hash256, checksum == null ? null : checksum[0]);
+    var kind = Store.link(entry, target);
+    logger.accept(String.format(" o Remote   -> %s", uri));
+    logger.accept(String.format(" o Target   -> %s", target.toUri()));
+    logger.accept(String.format(" o Stored   -> %s (%s)", entry, kind));
+    logger.accept(String.format(" o Modified -> %s", lastModified));
+    logger.accept(String.format(" o Size     -> %d bytes", Files.size(target)));
+    logger.accept(String.format("Downloaded %s successfully.", target.getFileName()));
+  }
+
+  /** Wait for the future to complete and rethrow its cause on failure. */
+  static <T> T join(CompletableFuture<T> future) throws Exception {
+    try {
+      return future.join();
+    } catch (CompletionException e) {
+      var cause = e.getCause();
+      if (cause instanceof Exception) {
+        throw (Exception) cause;
+      }
+      if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new Error("Download failed", cause);
+    }
+  }
+
+  /** Extract last path element from the supplied uri. */
+  static String extractFileName(URI uri) {
+    var path = uri.getPath(); // strip query and fragment elements
+    return path.substring(path.lastIndexOf('/') + 1);
+  }
+
+  /** Stream entries into the target directory in parallel, preserving their timestamps. */
+  static void extractEntries(Path zip, Path target) throws Exception {
+    var root = target.toAbsolutePath().normalize();
+    try (var zipFile = new ZipFile(zip.toFile())) {
+      var directories = new ArrayList<ZipEntry>();
+      var files = new ArrayList<ZipEntry>();
+      for (var entry : Collections.list(zipFile.entries())) {
+        checkEntry(root, entry);
+        (entry.isDirectory() ? directories : files).add(entry);
+      }
+      for (var directory : directories) {
+        Files.createDirectories(root.resolve(directory.getName()));
+      }
+      try {
+        files
+            .parallelStream()
+            .forEach(
+                entry -> {
+                  var file = root.resolve(entry.getName());
+                  try (var stream = zipFile.getInputStream(entry)) {
+                    Files.createDirectories(file.getParent());
+                    Files.copy(stream, file, StandardCopyOption.REPLACE_EXISTING);
+                    Files.setLastModifiedTime(file, entry.getLastModifiedTime());
+                  } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                  }
+                });
+      } catch (UncheckedIOException e) {
+        throw e.getCause();
+      }
+      // creating files touched their directories, stamp directories last
+      for (var directory : directories) {
+        var path = root.resolve(directory.getName());
+        Files.setLastModifiedTime(path, directory.getLastModifiedTime());
+      }
+    }
+  }
+
+  /** Fail if the entry is absolute or navigates out of the root directory, "zip-slip". */
+  private static void checkEntry(Path root, ZipEntry entry) throws IOException {
+    if (!root.resolve(entry.getName()).normalize().startsWith(root)) {
+      throw new IOException("Zip entry escapes target directory: " + entry.getName());
+    }
+  }
+}
+
+/** Simple module information collector. */
+class ModuleInfo {
+
+  private static final Pattern PACKAGE = Pattern.compile("package\\s+(.+?);", Pattern.DOTALL);
+
+  private static final byte[] MAIN_SEQUENCE = "static void main(String".getBytes();
+
+  /** Source files of this size and larger are memory-mapped when scanned. */
+  private static final long MAP_THRESHOLD = 64 * 1024;
+
+  private static final Pattern TYPE = Pattern.compile("(class|interface|enum)\\s+(.+)\\s*\\{.*");
+
+  /** Parsed descriptors of this process. */
+  static final Cache CACHE = new Cache();
+
+  static ModuleInfo of(Path path) {
+    if (Files.isDirectory(path)) {
+      path = path.resolve("module-info.java");
+    }
+    try {
+      return CACHE.get(path);
+    } catch (Exception e) {
+      throw new RuntimeException("reading '" + path + "' failed", e);
+    }
+  }
+
+  /** Parse module compilation unit in a single pass over its tokens. */
+  static ModuleInfo of(String source) {
+    var lexer = new Lexer(source);
+    // skip import declarations and annotations up to the "module" keyword
+    var open = false;
+    var token = lexer.next();
+    while (token != null && !token.equals("module")) {
+      if (token.equals("@")) {
+        lexer.skipAnnotation();
+      } else if (token.equals("import")) {
+        lexer.words();
+      } else {
+        open = token.equals("open");
+      }
+      token = lexer.next();
+    }
+    var name = lexer.next();
+    if (token == null || !Lexer.isName(name) || !"{".equals(lexer.next())) {
+      throw new IllegalArgumentException(
+          "expected java module descriptor unit, but got: " + source);
+    }
+    // scan module directives
+    var info = new ModuleInfo(name, open);
+    for (token = lexer.next(); token != null && !token.equals("}"); token = lexer.next()) {
+      if (token.equals("@")) {
+        lexer.skipAnnotation();
+        continue;
+      }
+      var words = lexer.words();
+      if (words.isEmpty()) {
+        continue;
+      }
+      var first = words.get(0);
+      var rest = words.subList(Math.min(2, words.size()), words.size());
+      switch (token) {
+        case "requires":
+          var module = words.get(words.size() - 1);
+          info.requires.add(module);
+          info.modifiers.put(module, Set.copyOf(words.subList(0, words.size() - 1)));
+          break;
+        case "exports":
+          info.exports.computeIfAbsent(first, __ -> new TreeSet<>()).addAll(rest);
+          break;
+        case "opens":
+          info.opens.computeIfAbsent(first, __ -> new TreeSet<>()).addAll(rest);
+          break;
+        case "uses":
+          info.uses.add(first);
+          break;
+        case "provides":
+          info.provides.computeIfAbsent(first, __ -> new ArrayList<>()).addAll(rest);
+          break;
+        default:
+          // unknown directive, already skipped
+      }
+    }
+    return info;
+  }
+
+  /** Enumerate all system module names. */
+  static Set<String> findSystemModuleNames() {
+    return findSystemModules().keySet();
+  }
+
+  /** Map all system module names to their module information, found once per process. */
+  static Map<String, ModuleInfo> findSystemModules() {
+    return SystemModules.MODULES;
+  }
+
+  /** Create module information from the supplied module descriptor. */
+  static ModuleInfo of(ModuleDescriptor descriptor) {
+    var info = new ModuleInfo(descriptor.name(), descriptor.isOpen());
+    for (var requires : descriptor.requires()) {
+      info.requires.add(requires.name());
+      info.modifiers.put(
+          requires.name(),
+          requires.modifiers().stream()
+              .map(modifier -> modifier.name().toLowerCase())
+              .collect(Collectors.toSet()));
+    }
+    for (var exports : descriptor.exports()) {
+      info.exports
+          .computeIfAbsent(exports.source(), __ -> new TreeSet<>())
+          .addAll(exports.targets());
+    }
+    for (var opens : descriptor.opens()) {
+      info.opens.computeIfAbsent(opens.source(), __ -> new TreeSet<>()).addAll(opens.targets());
+    }
+    info.uses.addAll(descriptor.uses());
+    for (var provides : descriptor.provides()) {
+      info.provides.put(provides.service(), provides.providers());
+    }
+    return info;
+  }
+
+  /** Calculate external module names. */
+  static Set<String> findExternalModuleNames(Set<Path> roots) {
+    var declaredModules = new TreeSet<String>();
+    var requiredModules = new TreeSet<String>();
+    for (var path : findModuleInfoPaths(roots)) {
+      var info = ModuleInfo.of(path);
+      declaredModules.add(info.name);
+      requiredModules.addAll(info.requires);
+    }
+    var externalModules = new TreeSet<>(requiredModules);
+    externalModules.removeAll(declaredModules);
+    externalModules.removeAll(findSystemModuleNames()); // "java.base", "java.logging", ...
+    return externalModules;
+  }
+
+  /** Find all module declaration files walking the root paths. */
+  static List<Path> findModuleInfoPaths(Set<Path> roots) {
+    var paths = new ArrayList<Path>();
+    for (var root : roots) {
+      try (var stream = Files.walk(root)) {
+        stream.filter(path -> path.endsWith("module-info.java")).forEach(paths::add);
+      } catch (Exception e) {
+        throw new RuntimeException("walking path failed for: " + root, e);
+      }
+    }
+    return paths;
+  }
+
+  /** Find first Java program walking root path or {@code null}. */
+  static String findProgram(Path root) throws Exception {
+    var programs = findPrograms(root, true);
+    return programs.isEmpty() ? null : programs.get(0);
+  }
+
+  /** Find first or all Java programs walking root path. */
+  static List<String> findPrograms(Path root, boolean first) throws Exception {
+    // take a snapshot of the source tree
+    var files = new ArrayList<Path>();
+    var modules = new HashSet<Path>();
+    try (var stream = Files.walk(root)) {
+      stream
+          .filter(ModuleInfo::isJavaFile)
+          .forEach(
+              path -> {
+                files.add(path);
+                if (path.endsWith("module-info.java")) {
+                  modules.add(path.getParent());
+                }
+              });
+    }
+    // scan all candidates in parallel, stop early when only the first program is requested
+    var candidates = files.parallelStream().filter(ModuleInfo::isProgram);
+    var hits =
+        first
+            ? candidates.findFirst().stream().collect(Collectors.toList())
+            : candidates.collect(Collectors.toList());
+    var programs = new ArrayList<String>();
+    for (var path : hits) {
+      var modulePath = findModulePath(root, modules, path);
+      if (modulePath == null) {
+        throw new IllegalStateException("expected 'module-info.java' in parents of " + path);
+      }
+      var moduleName = ModuleInfo.of(modulePath).name;
+      var source = Files.readString(path);
+      // extract name of type's package
+      var packageMatcher = PACKAGE.matcher(source);
+      if (!packageMatcher.find()) {
+        throw new IllegalStateException("expected package to be declared in " + path);
+      }
+      var packageName = packageMatcher.group(1);
+      // extract name of the type
+      var typeMatcher = TYPE.matcher(source);
+      if (!typeMatcher.find()) {
+        throw new IllegalStateException("expected java compilation unit, but got: " + path);
+      }
+      var typeName = typeMatcher.group(2).trim().split(" ")[0];
+      programs.add(moduleName + '/' + packageName + '.' + typeName);
+    }
+    return programs;
+  }
+
+  /** Find nearest directory containing a {@code module-info.java} file or {@code null}. */
+  private static Path findModulePath(Path root, Set<Path> modules, Path path) {
+    for (var directory = path.getParent(); directory != null; ) {
+      if (modules.contains(directory)) {
+        return directory;
+      }
+      // directories outside the snapshot are checked on the file system
+      if (!directory.startsWith(root) && Files.exists(directory.resolve("module-info.java"))) {
+        return directory;
+      }
+      directory = directory.getParent();
+    }
+    return null;
+  }
+
+  /** Test whether the supplied source file declares a {@code main} method. */
+  private static boolean isProgram(Path path) {
+    try (var channel = FileChannel.open(path)) {
+      var size = channel.size();
+      var buffer =
+          size < MAP_THRESHOLD
+              ? ByteBuffer.wrap(Files.readAllBytes(path))
+              : channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+      return indexOf(buffer, MAIN_SEQUENCE) >= 0;
+    } catch (IOException e) {
+      throw new UncheckedIOException("scanning for main method failed: " + path, e);
+    }
+  }
+
+  /** Return index of the first occurrence of the sequence in the buffer or {@code -1}. */
+  private static int indexOf(ByteBuffer buffer, byte[] sequence) {
+    var limit = buffer.limit() - sequence.length;
+    outer:
+    for (var i = 0; i <= limit; i++) {
+      for (var j = 0; j < sequence.length; j++) {
+        if (buffer.get(i + j) != sequence[j]) {
+          continue outer;
+        }
+      }
+      return i;
+    }
+    return -1;
+  }
+
+  /** Name of the module. */
+  final String name;
+  /** {@code open module} flag. */
+  final boolean open;
+  /** Names of required modules. */
+  final Set<String> requires;
+  /** Modifiers of each required module, like {@code static} and {@code transitive}. */
+  final Map<String, Set<String>> modifiers;
+  /** Exported packages mapped to their target modules, empty targets means unqualified. */
+  final Map<String, Set<String>> exports;
+  /** Opened packages mapped to their target modules, empty targets means unqualified. */
+  final Map<String, Set<String>> opens;
+  /** Service types used by the module. */
+  final Set<String> uses;
+  /** Service types mapped to their provider types. */
+  final Map<String, List<String>> provides;
+
+  private ModuleInfo(String name, boolean open) {
+    this.name = name;
+    this.open = open;
+    this.requires = new TreeSet<>();
+    this.modifiers = new TreeMap<>();
+    this.exports = new TreeMap<>();
+    this.opens = new TreeMap<>();
+    this.uses = new TreeSet<>();
+    this.provides = new TreeMap<>();
+  }
+
+  /** Parsed module descriptors keyed by path and validated by file size and modification time. */
+  static final class Cache {
+
+    /** Cached descriptor and the file attributes it was parsed from. */
+    private static final class Entry {
+      final long size;
+      final long modified;
+      final ModuleInfo info;
+
+      Entry(long size, long modified, ModuleInfo info) {
+        this.size = size;
+        this.modified = modified;
+        this.info = info;
+      }
+    }
+
+    private final Map<Path, Entry> entries = new ConcurrentHashMap<>();
+
+    /** Return cached module information or parse the supplied {@code module-info.java} file. */
+    ModuleInfo get(Path path) throws IOException {
+      var key = path.toAbsolutePath().normalize();
+      var attributes = Files.readAttributes(key, BasicFileAttributes.class);
+      var size = attributes.size();
+      var modified = attributes.lastModifiedTime().toMillis();
+      var entry = entries.get(key);
+      if (entry != null && entry.size == size && entry.modified == modified) {
+        return entry.info;
+      }
+      var info = ModuleInfo.of(Files.readString(key));
+      entries.put(key, new Entry(size, modified, info));
+      return info;
+    }
+  }
+  /** System modules of the current Java runtime, found on first access. */
+  static final class SystemModules {
+
+    static final Map<String, ModuleInfo> MODULES =
+        Collections.unmodifiableMap(
+            ModuleFinder.ofSystem().findAll().stream()
+                .map(reference -> ModuleInfo.of(reference.descriptor()))
+                .collect(
+                    Collectors.toMap(info -> info.name, info -> info, (a, b) -> a, TreeMap::new)));
+  }
+
+  /** Hand-written tokenizer for Java module compilation units. */
+  static final class Lexer {
+
+    /** Test supplied token for being a (qualified) Java name. */
+    static boolean isName(String token) {
+      return token != null && Character.isJavaIdentifierStart(token.charAt(0));
+    }
+
+    private final String source;
+    private final int length;
+    private int index;
+
+    Lexer(String source) {
+      this.source = source;
+      this.length = source.length();
+      this.index = 0;
+    }
+
+    /** Return next name or single-char symbol token, or {@code null} at the end of input. */
+    String next() {
+      while (index < length) {
+        var c = source.charAt(index);
+        if (Character.isWhitespace(c)) {
+          index++;
+          continue;
+        }
+        if (c == '/' && index + 1 < length) {
+          var d = source.charAt(index + 1);
+          if (d == '/') {
+            index = source.indexOf('\n', index + 2);
+            index = index < 0 ? length : index + 1;
+            continue;
+          }
+          if (d == '*') {
+            index = source.indexOf("*/", index + 2);
+            index = index < 0 ? length : index + 2;
+            continue;
+          }
+        }
+        if (c == '"' || c == '\'') {
+          skipLiteral(c);
+          continue;
+        }
+        if (Character.isJavaIdentifierStart(c)) {
+          var start = index++;
+          while (index < length) {
+            var p = source.charAt(index);
+            if (!Character.isJavaIdentifierPart(p) && p != '.') {
+              break;
+            }
+            index++;
+          }
+          return source.substring(start, index);
+        }
+        index++;
+        switch (c) {
+          case '{':
+            return "{";
+          case '}':
+            return "}";
+          case ';':
+            return ";";
+          case '(':
+            return "(";
+          case ')':
+            return ")";
+          case '@':
+            return "@";
+          default:
+            // ignore other symbols, like ',' and '='
+        }
+      }
+      return null;
+    }
+
+    /** Collect all names up to and including the next ';' or up to a '}' symbol. */
+    List<String> words() {
+      var words = new ArrayList<String>();
+      for (var token = next(); token != null && !token.equals(";"); token = next()) {
+        if (token.equals("}")) {
+          index--; // push back closing curly bracket
+          break;
+        }
+        if (isName(token)) {
+          words.add(token);
+        }
+      }
+      return words;
+    }
+
+    /** Skip annotation name and its optional parenthesized elements. */
+    void skipAnnotation() {
+      next(); // annotation type name
+      var mark = index;
+      if (!"(".equals(next())) {
+        index = mark;
+        return;
+      }
+      for (var depth = 1; depth > 0; ) {
+        var token = next();
+        if (token == null) {
+          return;
+        }
+        if (token.equals("(")) {
+          depth++;
+        } else if (token.equals(")")) {
+          depth--;
+        }
+      }
+    }
+
+    private void skipLiteral(char quote) {
+      index++;
+      while (index < length) {
+        var c = source.charAt(index++);
+        if (c == '\\') {
+          index++;
+        } else if (c == quote) {
+          return;
+        }
+      }
+    }
+  }
+
+  /** Test supplied path for pointing to a Java source compilation unit. */
+  static boolean isJavaFile(Path path) {
+    if (Files.isRegularFile(path)) {
+      var name = path.getFileName().toString();
+      if (name.endsWith(".java")) {
+        return name.indexOf('.') == name.length() - 5; // single dot in filename
+      }
+    }
+    return false;
+  }
+}
 
 /** Java Shell Builder. */
 class Bach {
@@ -83,6 +1383,45 @@ class Bach {
   /** Tool map. */
   final Map<String, Tool> tools;
 
+  /** Configured downloaders, shared by all users of an equal configuration. */
+  private static final Map<List<String>, Downloader> DOWNLOADERS = new ConcurrentHashMap<>();
+
+  /** Return the downloader configured by this instance's properties, created on first use. */
+  Downloader downloader() {
+    return downloader(this::get);
+  }
+
+  /** Return the downloader configured by the supplied property lookup. */
+  static Downloader downloader(Function<Property, String> config) {
+    var values =
+        Stream.of(
+                Property.DOWNLOAD_HOST_LIMIT,
+                Property.TOOL_HOME,
+                Property.DOWNLOAD_TTL,
+                Property.DOWNLOAD_TIMEOUT,
+                Property.CACHE_HOME)
+            .map(config)
+            .collect(Collectors.toList());
+    return DOWNLOADERS.computeIfAbsent(
+        values,
+        __ -> {
+          var store = new Store(Path.of(config.apply(Property.TOOL_HOME)).resolve("store"));
+          return downloader(config, store);
+        });
+  }
+
+  /** Create a downloader committing to the supplied store, configured by the property lookup. */
+  static Downloader downloader(Function<Property, String> config, Store store) {
+    var downloader =
+        new Downloader(
+            Integer.parseInt(config.apply(Property.DOWNLOAD_HOST_LIMIT)),
+            store,
+            Duration.parse(config.apply(Property.DOWNLOAD_TTL)),
+            Duration.parse(config.apply(Property.DOWNLOAD_TIMEOUT)));
+    downloader.cacheHome = Path.of(config.apply(Property.CACHE_HOME));
+    return downloader;
+  }
+
   /** Initialize Bach instance using system properties. */
   Bach() {
     this(Boolean.getBoolean("ebug"), Path.of(Property.BASE.get()));
@@ -126,17 +1465,68 @@ class Bach {
     return download(tool.resolve(name), URI.create(get(property)));
   }
 
+  /** Download tool archive and extract it next to it, returning its home directory. */
+  private Path downloadAndUnzip(Property property) throws Exception {
+    var tool = Path.of(get(Property.TOOL_HOME));
+    var name = property.name().substring(9).toLowerCase(); // "TOOL_URI_XYZ" -> "xyz"
+    var offline = Boolean.parseBoolean(get(Property.OFFLINE));
+    var uris = mirrored(URI.create(get(property)));
+    log.debug("downloadAndUnzip(" + uris + ")");
+    return Util.downloadAndUnzip(downloader(), log::debug, offline, tool.resolve(name), uris);
+  }
+
   /** Download file from supplied uri to specified destination directory. */
   Path download(Path destination, URI uri) throws Exception {
-    return Util.download(log::debug, Boolean.parseBoolean(get(Property.OFFLINE)), destination, uri);
+    var offline = Boolean.parseBoolean(get(Property.OFFLINE));
+    var future = downloader().download(log::debug, offline, destination, mirrored(uri));
+    return Downloader.join(future);
+  }
+
+  /** Download files from supplied uris concurrently to specified destination directory. */
+  List<Path> download(Path destination, Collection<URI> uris) throws Exception {
+    var offline = Boolean.parseBoolean(get(Property.OFFLINE));
+    var futures = new ArrayList<CompletableFuture<Path>>();
+    for (var uri : uris) {
+      futures.add(downloader().download(log::debug, offline, destination, mirrored(uri)));
+    }
+    Downloader.join(CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)));
+    var paths = new ArrayList<Path>();
+    for (var future : futures) {
+      paths.add(future.join());
+    }
+    return paths;
+  }
+
+  /** Return mirrored uris first, followed by the supplied uri based on all repositories. */
+  List<URI> mirrored(URI uri) {
+    var repository = repository();
+    var string = uri.toString();
+    if (!string.startsWith(repository)) {
+      return List.of(uri);
+    }
+    var path = string.substring(repository.length());
+    var uris = new ArrayList<URI>();
+    get(Property.MAVEN_MIRRORS, "\\s+")
+        .map(mirror -> mirror.endsWith("/") ? mirror.substring(0, mirror.length() - 1) : mirror)
+        .forEach(mirror -> uris.add(URI.create(mirror + path)));
+    repositories().forEach(candidate -> uris.add(URI.create(candidate + path)));
+    return uris;
+  }
+
+  /** Return the first Maven repository, artifact uris are based on. */
+  String repository() {
+    return get(Property.MAVEN_REPOSITORY, "\\s+").findFirst().orElseThrow();
+  }
+
+  /** Return all configured Maven repositories, tried in their configured order. */
+  List<String> repositories() {
+    return get(Property.MAVEN_REPOSITORY, "\\s+").distinct().collect(Collectors.toList());
   }
 
   /** Build all and everything. */
   public void build() throws Exception {
     log.trace("build()");
-    project.assemble();
-    project.main.compile();
-    project.test.compile();
+    project.compile();
     project.test();
   }
 
@@ -153,6 +1543,11 @@ class Bach {
     Util.treeDelete(project.cache);
   }
 
+  /** Gets the cache home directory, holding lock files and other machine-wide caches. */
+  Path cacheHome() {
+    return Path.of(get(Property.CACHE_HOME));
+  }
+
   /** Gets the property value. */
   String get(Property property) {
     return get(property.key, property.defaultValue);
@@ -185,19 +1580,33 @@ class Bach {
     System.out.println();
   }
 
+  /** Package compiled main modules as modular JAR files. */
+  public void jar() throws Exception {
+    log.trace("jar()");
+    project.jar();
+  }
+
   /** Start main program. */
   public void launch() throws Exception {
     log.trace("launch()");
     project.launch();
   }
 
+  /** Link main modules into a cached custom runtime image. */
+  public void link() throws Exception {
+    log.trace("link()");
+    project.link();
+  }
+
   /** Create modular Java sample project in base directory. */
   public void scaffold() throws Exception {
     log.trace("scaffold()");
     var uri = "https://github.com/sormuras/bach/raw/" + VERSION + "/demo/scaffold.zip";
     var zip = download(base, URI.create(uri));
-    Util.unzip(zip);
+    Util.unzip(cacheHome(), zip);
     Files.delete(zip);
+    Files.deleteIfExists(Downloader.metadataFile(zip));
+    Files.deleteIfExists(Util.marker(zip, base));
   }
 
   /** Print help text to given print stream. */
@@ -307,7 +1716,9 @@ class Bach {
       CLEAN(Bach::clean, "Delete all generated assets - but keep caches intact."),
       ERASE(Bach::erase, "Delete all generated assets - and also delete caches."),
       HELP(Bach::help, "Print this help screen on standard out... F1, F1, F1!"),
+      JAR(Bach::jar, "Package compiled main modules as modular JAR files."),
       LAUNCH(Bach::launch, "Start project's main program."),
+      LINK(Bach::link, "Link main modules into a cached custom runtime image."),
       TOOL(
           null,
           "Run named tool consuming all remaining arguments:",
@@ -405,9 +1816,7 @@ class Bach {
     /** Run Maven. */
     static void maven(Bach bach, Object... args) throws Exception {
       bach.log.debug("maven(" + List.of(args) + ")");
-      var zip = bach.download(Property.TOOL_URI_MAVEN);
-      bach.log.debug("unzip(" + zip + ")");
-      var home = Bach.Util.unzip(zip);
+      var home = bach.downloadAndUnzip(Property.TOOL_URI_MAVEN);
       var win = System.getProperty("os.name").toLowerCase().contains("win");
       var name = "mvn" + (win ? ".cmd" : "");
       var executable = home.resolve("bin").resolve(name);
@@ -423,14 +1832,41 @@ class Bach {
     LOG_LEVEL("INFO"),
     /** Offline mode flag. */
     OFFLINE("false"),
-    /** Default Maven repository used for artifact resolution. */
+    /** Maximum number of concurrent downloads per host. */
+    DOWNLOAD_HOST_LIMIT("6"),
+    /** Time-to-live of release artifact downloads, checked without network access. */
+    DOWNLOAD_TTL("P1D"),
+    /** Timeout of connecting to a host and of awaiting its response headers. */
+    DOWNLOAD_TIMEOUT("PT30S"),
+    /** Maven repositories separated by whitespace, the first one is used in artifact uris. */
     MAVEN_REPOSITORY("https://repo1.maven.org/maven2"),
+    /** Mirrors of the default Maven repository tried in order, separated by whitespace. */
+    MAVEN_MIRRORS(""),
+    /** Local Maven repository consulted before any remote one. */
+    MAVEN_LOCAL_REPOSITORY(USER_HOME.resolve(".m2/repository").toString()),
+    /** Base URI of {@code module-maven.properties} and {@code module-version.properties}. */
+    MODULE_NAMES_URI(
+        "https://raw.githubusercontent.com/jodastephen/jpms-module-names/master/generated/"),
+    /** Time-to-live of the cached module name mappings, as an ISO-8601 duration. */
+    MODULE_NAMES_TTL("P1D"),
+    /** Write JAR entries uncompressed, trading archive size for packaging speed. */
+    JAR_STORE("false"),
+    /** Strip debug information from linked runtime images. */
+    LINK_STRIP_DEBUG("true"),
+    /** Compression of linked runtime images as accepted by {@code jlink --compress}. */
+    LINK_COMPRESS("2"),
+    /** Generate a CDS archive in linked runtime images, if the jlink tool supports it. */
+    LINK_CDS_ARCHIVE("true"),
     PROJECT_NAME("project"),
     PROJECT_VERSION("1.0.0-SNAPSHOT"),
     PROJECT_LAUNCH_MODULE("<module>[/<main-class>]"),
     PROJECT_LAUNCH_OPTIONS(""),
+    /** Launch main program from the linked runtime image instead of the module path. */
+    PROJECT_LAUNCH_IMAGE("false"),
     RUN_REDIRECT_TYPE("INHERIT"),
     RUN_REDIRECT_FILE(""), // empty: create temporary file
+    /** Home directory for caches shared by all projects. */
+    CACHE_HOME(USER_HOME.resolve(".bach/cache").toString()),
     /** Home directory for downloadable tools. */
     TOOL_HOME(USER_HOME.resolve(".bach/tool").toString()),
     /** URI to Google Java Format "all-deps" JAR. */
@@ -440,7 +1876,7 @@ class Bach {
             + "google-java-format-1.7-all-deps.jar"),
     /** URI to JUnit Platform Console Standalone JAR. */
     TOOL_URI_JUNIT(
-        MAVEN_REPOSITORY.get()
+        MAVEN_REPOSITORY.get().strip().split("\\s+")[0]
             + "/org/junit/platform/junit-platform-console-standalone/1.4.0/"
             + "junit-platform-console-standalone-1.4.0.jar"),
     /** Maven URI. */
@@ -498,7 +1934,7 @@ class Bach {
     }
 
     /** Log message unless threshold suppresses it. */
-    void log(Level level, String message) {
+    synchronized void log(Level level, String message) {
       if (level.getSeverity() < threshold.getSeverity()) {
         return;
       }
@@ -507,135 +1943,6 @@ class Bach {
     }
   }
 
-  /** Simple module information collector. */
-  static class ModuleInfo {
-
-    private static final Pattern NAME = Pattern.compile("(module)\\s+(.+)\\s*\\{.*");
-
-    private static final Pattern PACKAGE = Pattern.compile("package\\s+(.+?);", Pattern.DOTALL);
-
-    private static final Pattern REQUIRES = Pattern.compile("requires (.+?);", Pattern.DOTALL);
-
-    private static final Pattern TYPE = Pattern.compile("(class|interface|enum)\\s+(.+)\\s*\\{.*");
-
-    static ModuleInfo of(Path path) {
-      if (Files.isDirectory(path)) {
-        path = path.resolve("module-info.java");
-      }
-      try {
-        return of(Files.readString(path));
-      } catch (Exception e) {
-        throw new RuntimeException("reading '" + path + "' failed", e);
-      }
-    }
-
-    static ModuleInfo of(String source) {
-      // extract module name
-      var nameMatcher = NAME.matcher(source);
-      if (!nameMatcher.find()) {
-        throw new IllegalArgumentException(
-            "expected java module descriptor unit, but got: " + source);
-      }
-      var name = nameMatcher.group(2).trim();
-
-      // extract required module names
-      var requiresMatcher = REQUIRES.matcher(source);
-      var requires = new TreeSet<String>();
-      while (requiresMatcher.find()) {
-        var split = requiresMatcher.group(1).trim().split("\\s+");
-        requires.add(split[split.length - 1]);
-      }
-      return new ModuleInfo(name, requires);
-    }
-
-    /** Enumerate all system module names. */
-    static Set<String> findSystemModuleNames() {
-      return ModuleFinder.ofSystem().findAll().stream()
-          .map(reference -> reference.descriptor().name())
-          .collect(Collectors.toSet());
-    }
-
-    /** Calculate external module names. */
-    static Set<String> findExternalModuleNames(Set<Path> roots) {
-      var declaredModules = new TreeSet<String>();
-      var requiredModules = new TreeSet<String>();
-      var paths = new ArrayList<Path>();
-      for (var root : roots) {
-        try (var stream = Files.walk(root)) {
-          stream.filter(path -> path.endsWith("module-info.java")).forEach(paths::add);
-        } catch (Exception e) {
-          throw new RuntimeException("walking path failed for: " + root, e);
-        }
-      }
-      for (var path : paths) {
-        var info = ModuleInfo.of(path);
-        declaredModules.add(info.name);
-        requiredModules.addAll(info.requires);
-      }
-      var externalModules = new TreeSet<>(requiredModules);
-      externalModules.removeAll(declaredModules);
-      externalModules.removeAll(findSystemModuleNames()); // "java.base", "java.logging", ...
-      return externalModules;
-    }
-
-    /** Find first Java program walking root path or {@code null}. */
-    static String findProgram(Path root) throws Exception {
-      var programs = findPrograms(root, true);
-      return programs.isEmpty() ? null : programs.get(0);
-    }
-
-    /** Find first or all Java programs walking root path. */
-    static List<String> findPrograms(Path root, boolean first) throws Exception {
-      var programs = new ArrayList<String>();
-      try (var stream = Files.walk(root)) {
-        for (var path : stream.filter(Util::isJavaFile).collect(Collectors.toList())) {
-          var source = Files.readString(path);
-          // TODO Replace hard-coded search sequence with a regular expression.
-          if (source.contains("static void main(String")) {
-            // extract name from "module-info.java" in parent directories
-            var modulePath = path.getParent();
-            while (modulePath != null) {
-              if (Files.exists(modulePath.resolve("module-info.java"))) {
-                break;
-              }
-              modulePath = modulePath.getParent();
-            }
-            if (modulePath == null) {
-              throw new IllegalStateException("expected 'module-info.java' in parents of " + path);
-            }
-            var moduleName = ModuleInfo.of(modulePath).name;
-            // extract name of type's package
-            var packageMatcher = PACKAGE.matcher(source);
-            if (!packageMatcher.find()) {
-              throw new IllegalStateException("expected package to be declared in " + path);
-            }
-            var packageName = packageMatcher.group(1);
-            // extract name of the type
-            var typeMatcher = TYPE.matcher(source);
-            if (!typeMatcher.find()) {
-              throw new IllegalStateException("expected java compilation unit, but got: " + path);
-            }
-            var typeName = typeMatcher.group(2).trim().split(" ")[0];
-            var program = moduleName + '/' + packageName + '.' + typeName;
-            programs.add(program);
-            if (first) {
-              break;
-            }
-          }
-        }
-      }
-      return programs;
-    }
-
-    final String name;
-    final Set<String> requires;
-
-    private ModuleInfo(String name, Set<String> requires) {
-      this.name = name;
-      this.requires = Set.copyOf(requires);
-    }
-  }
-
   /** Project model. */
   final class Project {
     /** Destination directory for generated binaries. */
@@ -646,6 +1953,10 @@ class Bach {
     final Path cachedModules;
     /** User-managed 3rd-party libraries. */
     final Path lib;
+    /** Packaged modular JAR files. */
+    final Path modules;
+    /** Local Maven repository. */
+    final LocalRepository localRepository;
     /** Name of the project. */
     final String name;
     /** Main realm. */
@@ -655,12 +1966,23 @@ class Bach {
     /** Version of the project. */
     final String version;
 
+    /** Build tasks block on tools and processes, keep them off the common pool. */
+    private final ExecutorService executor =
+        Executors.newCachedThreadPool(
+            runnable -> {
+              var thread = new Thread(runnable, "bach-build");
+              thread.setDaemon(true);
+              return thread;
+            });
+
     /** Initialize project properties with default values. */
     Project() {
       this.bin = based("bin");
       this.cache = based(".bach");
       this.cachedModules = cache.resolve("modules");
       this.lib = based("lib");
+      this.modules = bin.resolve("modules");
+      this.localRepository = new LocalRepository(Path.of(get(Property.MAVEN_LOCAL_REPOSITORY)));
       this.name =
           get(
               Property.PROJECT_NAME.key,
@@ -685,11 +2007,51 @@ class Bach {
               Util.findPatchMap(List.of(testSource), List.of(main.source)));
     }
 
-    /** Assemble all assets. */
+    /** Assemble all assets, resolving external modules alongside the format check. */
     void assemble() throws Exception {
       log.debug("assemble()");
+      pipeline(false);
+    }
+
+    /** Assemble and compile all realms, each realm waits only for what its modules require. */
+    void compile() throws Exception {
+      log.debug("compile()");
+      pipeline(true);
+    }
+
+    /** Resolve external modules alongside the format check, compiling realms if requested. */
+    private void pipeline(boolean compile) throws Exception {
+      var resolved = async(bach -> assembleExternalModules());
+      var formatted = async(bach -> format());
+      var tasks = new ArrayList<>(List.of(resolved, formatted));
+      if (compile) {
+        var mainReady = main.requiresExternalModules() ? resolved : async(bach -> {});
+        var mainCompiled = mainReady.thenCompose(ready -> async(bach -> main.compile()));
+        var testCompiled =
+            CompletableFuture.allOf(resolved, mainCompiled)
+                .thenCompose(ready -> async(bach -> test.compile()));
+        tasks.add(mainCompiled);
+        tasks.add(testCompiled);
+      }
+      Downloader.join(CompletableFuture.allOf(tasks.toArray(CompletableFuture[]::new)));
+    }
+
+    /** Check format of all Java source files. */
+    private void format() throws Exception {
       Tool.format(Bach.this, false, Set.of(main.source, test.source));
-      assembleExternalModules();
+    }
+
+    /** Run the supplied task asynchronously, completing exceptionally with its failure. */
+    private CompletableFuture<Void> async(Action task) {
+      return CompletableFuture.runAsync(
+          () -> {
+            try {
+              task.perform(Bach.this);
+            } catch (Exception e) {
+              throw new CompletionException(e);
+            }
+          },
+          executor);
     }
 
     /** Assemble external modules. */
@@ -707,51 +2069,115 @@ class Bach {
         return;
       }
       log.debug("External module names: " + externals);
-      var moduleMaven =
-          Property.loadProperties(
-              download(
-                  cache,
-                  URI.create(
-                      "https://raw.githubusercontent.com/"
-                          + "jodastephen/jpms-module-names/master/generated/"
-                          + "module-maven.properties")));
-      var moduleVersion =
-          Property.loadProperties(
-              download(
-                  cache,
-                  URI.create(
-                      "https://raw.githubusercontent.com/"
-                          + "jodastephen/jpms-module-names/master/generated/"
-                          + "module-version.properties")));
-      var uris = new ArrayList<URI>();
-      for (var external : externals) {
-        var uri = get("module." + external, null);
-        if (uri != null) {
-          log.debug(String.format("External module %s mapped to custom uri: %s", external, uri));
-          uris.add(URI.create(uri));
-          continue;
+      // other processes building this project wait and reuse the resolved modules
+      var lock = PathLock.acquire(cacheHome(), cache);
+      try {
+        resolveExternalModules(externals);
+      } finally {
+        lock.release();
+      }
+    }
+
+    /** Resolve external modules and all modules they require in waves. */
+    private void resolveExternalModules(Set<String> externals) throws Exception {
+      var moduleMaven = loadModuleTable("module-maven");
+      var moduleVersion = loadModuleTable("module-version");
+      var known = new TreeSet<>(externals);
+      var wave = externals;
+      var libraries = ModuleFinder.of(lib);
+      while (!wave.isEmpty()) {
+        var paths = new ArrayList<Path>();
+        var uris = new ArrayList<URI>();
+        for (var external : wave) {
+          // resolution chain: project lib, local Maven repository, then download
+          var library = libraries.find(external).flatMap(ModuleReference::location);
+          if (library.isPresent()) {
+            log.debug(String.format("External module %s found in %s", external, lib));
+            paths.add(Path.of(library.get()));
+            continue;
+          }
+          var uri = get("module." + external, null);
+          if (uri != null) {
+            log.debug(String.format("External module %s mapped to custom uri: %s", external, uri));
+            uris.add(URI.create(uri));
+            continue;
+          }
+          var mavenGA = moduleMaven.getProperty(external);
+          if (mavenGA == null) {
+            log.log(Level.WARNING, String.format("External module not mapped: %s", external));
+            continue;
+          }
+          var group = mavenGA.substring(0, mavenGA.indexOf(':'));
+          var artifact = mavenGA.substring(group.length() + 1);
+          var version = moduleVersion.getProperty(external);
+          var jar = localRepository.find(group, artifact, version);
+          if (jar != null) {
+            var target = Files.createDirectories(cachedModules).resolve(jar.getFileName());
+            if (Files.notExists(target) || Files.size(target) != Files.size(jar)) {
+              var kind = Store.link(jar, target);
+              log.debug(String.format("Linked %s as %s from local repository", target, kind));
+            }
+            paths.add(target);
+            continue;
+          }
+          uris.add(maven(group, artifact, version));
         }
-        var mavenGA = moduleMaven.getProperty(external);
-        if (mavenGA == null) {
-          log.log(Level.WARNING, String.format("External module not mapped: %s", external));
-          continue;
+        paths.addAll(download(cachedModules, uris));
+        paths.forEach(path -> log.debug("Resolved " + path));
+        // queue modules required by downloaded modules, but not seen yet
+        var next = new TreeSet<String>();
+        for (var path : paths) {
+          next.addAll(findRequiredModuleNames(path));
+        }
+        next.removeAll(ModuleInfo.findSystemModuleNames());
+        next.removeAll(known);
+        if (!next.isEmpty()) {
+          log.debug("Transitive external module names: " + next);
         }
-        var group = mavenGA.substring(0, mavenGA.indexOf(':'));
-        var artifact = mavenGA.substring(group.length() + 1);
-        var version = moduleVersion.getProperty(external);
-        uris.add(maven(group, artifact, version));
+        known.addAll(next);
+        wave = next;
       }
-      for (var uri : uris) {
-        var path = download(cachedModules, uri);
-        log.debug("Resolved " + path);
+    }
+
+    /** Read non-static required module names from the module descriptor of a modular JAR. */
+    Set<String> findRequiredModuleNames(Path jar) {
+      try {
+        var names = new TreeSet<String>();
+        for (var reference : ModuleFinder.of(jar).findAll()) {
+          for (var requires : reference.descriptor().requires()) {
+            if (!requires.modifiers().contains(ModuleDescriptor.Requires.Modifier.STATIC)) {
+              names.add(requires.name());
+            }
+          }
+        }
+        return names;
+      } catch (FindException e) {
+        log.log(Level.WARNING, "Reading module descriptor failed: " + e.getMessage());
+        return Set.of();
+      }
+    }
+
+    /** Load named jpms-module-names mapping, reusing its cached copy within the time-to-live. */
+    Properties loadModuleTable(String name) throws Exception {
+      var index = cache.resolve(name + ".index");
+      if (Files.exists(index)) {
+        var ttl = Duration.parse(get(Property.MODULE_NAMES_TTL));
+        var modified = Files.getLastModifiedTime(index).toInstant();
+        var offline = Boolean.parseBoolean(get(Property.OFFLINE));
+        if (offline || modified.plus(ttl).isAfter(Instant.now())) {
+          log.debug(String.format("Using cached module table %s", index));
+          return Property.loadProperties(index);
+        }
       }
+      var uri = URI.create(get(Property.MODULE_NAMES_URI) + name + ".properties");
+      var properties = Property.loadProperties(download(cache, uri));
+      Store.writeProperties(index, properties, uri.toString());
+      return properties;
     }
 
     /** Create URI for supplied Maven coordinates. */
     URI maven(String group, String artifact, String version) {
-      // TODO Try local repository first?
-      // Path.of(System.getProperty("user.home"), ".m2", "repository").toUri().toString();
-      var repo = get(Property.MAVEN_REPOSITORY);
+      var repo = repository();
       var file = artifact + "-" + version + ".jar";
       return URI.create(String.join("/", repo, group.replace('.', '/'), artifact, version, file));
     }
@@ -786,20 +2212,185 @@ class Bach {
         log.log(Level.INFO, "Skip launch. No compiled classes target found: " + main.target);
         return;
       }
+      var image = Boolean.parseBoolean(get(Property.PROJECT_LAUNCH_IMAGE)) ? link() : null;
       var defaultLaunch = ModuleInfo.findProgram(main.source);
       var launch = get(Property.PROJECT_LAUNCH_MODULE.key, defaultLaunch);
       if (launch == null) {
         log.log(Level.INFO, "No <module>[/<main-class>] supplied, no launch.");
         return;
       }
-      log.log(Level.INFO, "Launching " + launch + "...");
+      var executable = "java";
       var java = new ArrayList<>();
       get(Property.PROJECT_LAUNCH_OPTIONS, "\\|").forEach(java::add);
-      java.add("--module-path");
-      java.add(Util.join(main.target, lib, cachedModules));
+      if (image == null) {
+        log.log(Level.INFO, "Launching " + launch + "...");
+        java.add("--module-path");
+        java.add(Util.join(main.target, lib, cachedModules));
+      } else {
+        log.log(Level.INFO, String.format("Launching %s from runtime image %s...", launch, image));
+        var win = System.getProperty("os.name").toLowerCase().contains("win");
+        executable = image.resolve("bin").resolve(win ? "java.exe" : "java").toString();
+      }
       java.add("--module");
       java.add(launch);
-      run(0, "java", java.toArray(Object[]::new));
+      run(0, executable, java.toArray(Object[]::new));
+    }
+
+    /** Package each compiled main module as a modular JAR file, in parallel and when changed. */
+    void jar() throws Exception {
+      if (Files.notExists(main.target)) {
+        log.log(Level.INFO, "Skip jar. No compiled classes target found: " + main.target);
+        return;
+      }
+      var mainClasses = new TreeMap<String, String>();
+      if (Files.isDirectory(main.source)) {
+        for (var program : ModuleInfo.findPrograms(main.source, false)) {
+          var slash = program.indexOf('/');
+          mainClasses.putIfAbsent(program.substring(0, slash), program.substring(slash + 1));
+        }
+      }
+      Files.createDirectories(modules);
+      var jars =
+          Util.findDirectoryNames(main.target).stream()
+              .map(module -> async(bach -> jar(module, mainClasses.get(module))))
+              .toArray(CompletableFuture[]::new);
+      Downloader.join(CompletableFuture.allOf(jars));
+    }
+
+    /** Create modular JAR file of the named module, unless its classes are unchanged. */
+    private void jar(String module, String mainClass) throws Exception {
+      var classes = main.target.resolve(module);
+      var jar = modules.resolve(module + ".jar");
+      var stamp = stamp(module);
+      var moduleVersion = isModuleVersion(version) ? version : null;
+      var store = Boolean.parseBoolean(get(Property.JAR_STORE));
+      var fingerprint = String.join(" ", Util.treeHash(classes), mainClass, moduleVersion);
+      if (store) {
+        fingerprint += " store";
+      }
+      if (Files.exists(jar) && Files.exists(stamp) && Files.readString(stamp).equals(fingerprint)) {
+        log.debug(String.format("Skip jar %s: classes of %s unchanged", jar, module));
+        return;
+      }
+      Files.deleteIfExists(stamp);
+      var args = new ArrayList<>();
+      args.add("--create");
+      args.add("--file");
+      args.add(jar);
+      if (store) {
+        args.add("--no-compress");
+      }
+      if (mainClass != null) {
+        args.add("--main-class");
+        args.add(mainClass);
+      }
+      if (moduleVersion != null) {
+        args.add("--module-version");
+        args.add(moduleVersion);
+      }
+      args.add("-C");
+      args.add(classes);
+      args.add(".");
+      run(0, "jar", args.toArray(Object[]::new));
+      Files.writeString(stamp, fingerprint);
+      log.debug(String.format("Packaged %s as %s", module, jar));
+    }
+
+    /** Return the file recording the fingerprint of the named module's JAR file. */
+    private Path stamp(String module) {
+      return modules.resolve("." + module + ".fingerprint");
+    }
+
+    /**
+     * Link main modules and the modules they require into a custom runtime image.
+     *
+     * <p>Images are cached below {@code .bach/images} and keyed by the linking JDK, the jlink
+     * options, the module set with its JAR fingerprints, and the libraries on the module path.
+     */
+    Path link() throws Exception {
+      if (Files.notExists(main.target)) {
+        log.log(Level.INFO, "Skip link. No compiled classes target found: " + main.target);
+        return null;
+      }
+      jar();
+      var names = new TreeSet<>(Util.findDirectoryNames(main.target));
+      var options = new ArrayList<String>();
+      if (Boolean.parseBoolean(get(Property.LINK_STRIP_DEBUG))) {
+        options.add("--strip-debug");
+      }
+      var compress = get(Property.LINK_COMPRESS);
+      if (!compress.isBlank()) {
+        options.add("--compress=" + compress.strip());
+      }
+      if (Boolean.parseBoolean(get(Property.LINK_CDS_ARCHIVE))
+          && Util.isJlinkPluginAvailable("generate-cds-archive")) {
+        options.add("--generate-cds-archive");
+      }
+      options.add("--no-header-files");
+      options.add("--no-man-pages");
+      var lines = new ArrayList<String>();
+      lines.add("jdk " + Runtime.version() + " " + System.getProperty("java.home"));
+      lines.add("options " + options);
+      for (var name : names) {
+        lines.add("module " + name + " " + Files.readString(stamp(name)));
+      }
+      for (var directory : List.of(lib, cachedModules)) {
+        if (Files.isDirectory(directory)) {
+          try (var stream = Files.list(directory)) {
+            for (var jar : stream.sorted().toArray(Path[]::new)) {
+              var modified = Files.getLastModifiedTime(jar).toMillis();
+              lines.add("path " + jar.getFileName() + " " + Files.size(jar) + " " + modified);
+            }
+          }
+        }
+      }
+      var images = cache.resolve("images");
+      var image = images.resolve(Store.digest(String.join("\n", lines)));
+      if (Files.isDirectory(image)) {
+        log.debug("Using cached runtime image " + image);
+        return image;
+      }
+      // other processes linking the same image wait and reuse it
+      var lock = PathLock.acquire(cacheHome(), images);
+      try {
+        if (Files.isDirectory(image)) {
+          log.debug("Using cached runtime image " + image);
+          return image;
+        }
+        var temp = images.resolve(image.getFileName() + ".tmp");
+        Util.treeDelete(temp);
+        Files.createDirectories(images);
+        var jlink = new ArrayList<Object>();
+        jlink.add("--module-path");
+        jlink.add(Util.join(modules, lib, cachedModules));
+        jlink.add("--add-modules");
+        jlink.add(String.join(",", names));
+        jlink.add("--output");
+        jlink.add(temp);
+        jlink.addAll(options);
+        run(0, "jlink", jlink.toArray(Object[]::new));
+        Files.move(temp, image, StandardCopyOption.ATOMIC_MOVE);
+        // images linked from outdated inputs are not used again
+        try (var stream = Files.list(images)) {
+          for (var path : stream.filter(path -> !path.equals(image)).toArray(Path[]::new)) {
+            Util.treeDelete(path);
+          }
+        }
+      } finally {
+        lock.release();
+      }
+      log.debug("Linked runtime image " + image);
+      return image;
+    }
+
+    /** Test whether the supplied string is a valid module version. */
+    private boolean isModuleVersion(String version) {
+      try {
+        ModuleDescriptor.Version.parse(version);
+        return true;
+      } catch (IllegalArgumentException e) {
+        return false;
+      }
     }
 
     /** Start test run. */
@@ -839,6 +2430,14 @@ class Bach {
         this.patches = patches;
       }
 
+      /** Test whether modules of this realm require modules not declared in its source path. */
+      boolean requiresExternalModules() {
+        if (Files.notExists(source)) {
+          return false;
+        }
+        return !ModuleInfo.findExternalModuleNames(Set.of(source)).isEmpty();
+      }
+
       /** Compile all Java sources found in this realm. */
       void compile() throws Exception {
         log.trace(String.format("%s.compile()", name));
@@ -871,52 +2470,35 @@ class Bach {
     }
 
     /** Download file from supplied uri to specified destination directory. */
-    static Path download(Consumer<String> logger, boolean offline, Path destination, URI uri)
+    static Path download(
+        Downloader downloader, Consumer<String> logger, boolean offline, Path destination, URI uri)
         throws Exception {
-      logger.accept("download(" + uri + ")");
-      var fileName = extractFileName(uri);
-      var target = Files.createDirectories(destination).resolve(fileName);
-      var url = uri.toURL();
-      if (offline) {
-        if (Files.exists(target)) {
-          logger.accept("Offline mode is active and target already exists.");
-          return target;
-        }
-        throw new IllegalStateException("Target is missing and being offline: " + target);
-      }
-      var connection = url.openConnection();
-      try (var sourceStream = connection.getInputStream()) {
-        var millis = connection.getLastModified();
-        var lastModified = FileTime.fromMillis(millis == 0 ? System.currentTimeMillis() : millis);
-        if (Files.exists(target)) {
-          logger.accept("Local target file exists. Comparing last modified timestamps...");
-          var fileModified = Files.getLastModifiedTime(target);
-          logger.accept(" o Remote Last Modified -> " + lastModified);
-          logger.accept(" o Target Last Modified -> " + fileModified);
-          if (fileModified.equals(lastModified)) {
-            logger.accept(String.format("Already downloaded %s previously.", fileName));
-            return target;
-          }
-          logger.accept("Local target file differs from remote source -- replacing it...");
-        }
-        logger.accept("Transferring " + uri);
-        try (var targetStream = Files.newOutputStream(target)) {
-          sourceStream.transferTo(targetStream);
-        }
-        Files.setLastModifiedTime(target, lastModified);
-        logger.accept(String.format(" o Remote   -> %s", uri));
-        logger.accept(String.format(" o Target   -> %s", target.toUri()));
-        logger.accept(String.format(" o Modified -> %s", lastModified));
-        logger.accept(String.format(" o Size     -> %d bytes", Files.size(target)));
-        logger.accept(String.format("Downloaded %s successfully.", fileName));
+      return Downloader.join(downloader.download(logger, offline, destination, uri));
+    }
+
+    /** Test whether the jlink tool of the running JDK provides the named plugin. */
+    static boolean isJlinkPluginAvailable(String name) {
+      var jlink = ToolProvider.findFirst("jlink");
+      if (jlink.isEmpty()) {
+        return false;
       }
-      return target;
+      var out = new StringWriter();
+      jlink.get().run(new PrintWriter(out), new PrintWriter(new StringWriter()), "--list-plugins");
+      return out.toString().contains("--" + name);
     }
 
-    /** Extract last path element from the supplied uri. */
-    static String extractFileName(URI uri) {
-      var path = uri.getPath(); // strip query and fragment elements
-      return path.substring(path.lastIndexOf('/') + 1);
+    /** Compute SHA-256 message digest over relative names and contents of all files in a tree. */
+    static String treeHash(Path root) throws Exception {
+      var digest = MessageDigest.getInstance("SHA-256");
+      try (var stream = Files.walk(root)) {
+        for (var file : stream.filter(Files::isRegularFile).sorted().toArray(Path[]::new)) {
+          var bytes = Files.readAllBytes(file);
+          var name = root.relativize(file).toString().replace(File.separatorChar, '/');
+          digest.update((name + '\n' + bytes.length + '\n').getBytes(StandardCharsets.UTF_8));
+          digest.update(bytes);
+        }
+      }
+      return Store.hex(digest.digest());
     }
 
     /** Return list of child directories directly present in {@code root} path. */
@@ -968,18 +2550,7 @@ class Bach {
 
     /** List all regular Java files in given root directory. */
     static List<Path> findJavaFiles(Path root) throws Exception {
-      return findFiles(List.of(root), Util::isJavaFile);
-    }
-
-    /** Test supplied path for pointing to a Java source compilation unit. */
-    static boolean isJavaFile(Path path) {
-      if (Files.isRegularFile(path)) {
-        var name = path.getFileName().toString();
-        if (name.endsWith(".java")) {
-          return name.indexOf('.') == name.length() - 5; // single dot in filename
-        }
-      }
-      return false;
+      return findFiles(List.of(root), ModuleInfo::isJavaFile);
     }
 
     /** Join supplied paths into a single string joined by current path separator. */
@@ -1054,7 +2625,36 @@ class Bach {
 
     /** Delete all files and directories from and including the root directory. */
     static void treeDelete(Path root) throws Exception {
-      treeDelete(root, __ -> true);
+      if (Files.notExists(root, LinkOption.NOFOLLOW_LINKS)) {
+        return;
+      }
+      try {
+        deleteTree(root);
+      } catch (UncheckedIOException e) {
+        throw e.getCause();
+      }
+    }
+
+    /** Delete directory entries while streaming them, subdirectories in parallel, root last. */
+    private static void deleteTree(Path root) {
+      try {
+        if (Files.isDirectory(root, LinkOption.NOFOLLOW_LINKS)) {
+          var directories = new ArrayList<Path>();
+          try (var stream = Files.newDirectoryStream(root)) {
+            for (var path : stream) {
+              if (Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+                directories.add(path);
+                continue;
+              }
+              Files.deleteIfExists(path);
+            }
+          }
+          directories.parallelStream().forEach(Util::deleteTree);
+        }
+        Files.deleteIfExists(root);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
     }
 
     /** Delete selected files and directories from and including the root directory. */
@@ -1078,27 +2678,134 @@ class Bach {
     }
 
     /** Unzip file "in place". */
-    static Path unzip(Path zip) throws Exception {
-      return unzip(zip, zip.toAbsolutePath().getParent());
-    }
-
-    /** Unzip file to specified destination directory. */
-    static Path unzip(Path zip, Path destination) throws Exception {
-      var loader = Bach.class.getClassLoader();
-      try (var zipFileSystem = FileSystems.newFileSystem(zip, loader)) {
-        var root = zipFileSystem.getPath(zipFileSystem.getSeparator());
-        treeCopy(root, destination);
-        // Single subdirectory in root of the zip file?
-        var stream = Files.list(root);
-        var entries = stream.collect(Collectors.toList());
-        if (entries.size() == 1) {
-          var singleton = entries.get(0);
-          if (Files.isDirectory(singleton)) {
-            return destination.resolve(singleton.getFileName().toString());
+    static Path unzip(Path cacheHome, Path zip) throws Exception {
+      return unzip(cacheHome, zip, zip.toAbsolutePath().getParent());
+    }
+
+    /** Unzip file to specified destination directory, once per archive content. */
+    static Path unzip(Path cacheHome, Path zip, Path destination) throws Exception {
+      var lock = PathLock.acquire(cacheHome, destination);
+      try {
+        var marker = marker(zip, destination);
+        var properties = new Properties();
+        var size = String.valueOf(Files.size(zip));
+        var modified = String.valueOf(Files.getLastModifiedTime(zip).toMillis());
+        String sha256 = null;
+        Path previous = null;
+        if (Files.exists(marker)) {
+          try (var reader = Files.newBufferedReader(marker)) {
+            properties.load(reader);
+          }
+          var home = destination.resolve(properties.getProperty("home", ""));
+          previous = home;
+          // trees rooted at the destination itself can't be told apart from other files there
+          if (!home.equals(destination) && Files.isDirectory(home)) {
+            if (size.equals(properties.getProperty("size"))
+                && modified.equals(properties.getProperty("modified"))) {
+              return home;
+            }
+            // touched or copied, but same content? remember new attributes, skip extraction
+            sha256 = Store.hash("SHA-256", zip);
+            if (sha256.equals(properties.getProperty("sha256"))) {
+              properties.setProperty("size", size);
+              properties.setProperty("modified", modified);
+              Store.writeProperties(
+                  marker, properties, zip.toAbsolutePath().normalize().toString());
+              return home;
+            }
+          }
+        }
+        var home = extract(zip, destination, previous);
+        mark(marker, zip, destination, home, sha256 != null ? sha256 : Store.hash("SHA-256", zip));
+        return home;
+      } finally {
+        lock.release();
+      }
+    }
+
+    /** Return the marker file of an archive extracted to the destination directory. */
+    static Path marker(Path zip, Path destination) {
+      return destination.resolve("." + zip.getFileName() + ".unzip");
+    }
+
+    /** Record that the archive with the supplied hash was extracted to the home directory. */
+    private static void mark(Path marker, Path zip, Path destination, Path home, String sha256)
+        throws Exception {
+      var properties = new Properties();
+      properties.setProperty("size", String.valueOf(Files.size(zip)));
+      properties.setProperty("modified", String.valueOf(Files.getLastModifiedTime(zip).toMillis()));
+      properties.setProperty("sha256", sha256);
+      properties.setProperty("home", destination.relativize(home).toString());
+      Files.createDirectories(marker.getParent());
+      Store.writeProperties(marker, properties, zip.toAbsolutePath().normalize().toString());
+    }
+
+    /** Extract into a temporary directory and move the extracted tree into place. */
+    private static Path extract(Path zip, Path destination, Path previous) throws Exception {
+      var temp = Files.createTempDirectory(Files.createDirectories(destination), ".unzip-");
+      try {
+        var extracted = Files.createDirectory(temp.resolve("extracted"));
+        Downloader.extractEntries(zip, extracted);
+        return place(extracted, destination, temp, previous);
+      } finally {
+        treeDelete(temp);
+      }
+    }
+
+    /**
+     * Move an extracted tree from the temporary directory into the destination directory.
+     *
+     * @param previous home directory a previous extraction of the archive placed, or {@code null}
+     */
+    private static Path place(Path extracted, Path destination, Path temp, Path previous)
+        throws Exception {
+      List<Path> entries;
+      try (var stream = Files.list(extracted)) {
+        entries = stream.collect(Collectors.toList());
+      }
+      // Single subdirectory in root of the zip file? Swap the whole directory.
+      if (entries.size() == 1 && Files.isDirectory(entries.get(0))) {
+        var home = destination.resolve(entries.get(0).getFileName().toString());
+        // only a directory extracted before is swapped, others may hold user files
+        if (Files.notExists(home) || home.equals(previous)) {
+          if (Files.exists(home)) {
+            Files.move(home, temp.resolve("replaced"), StandardCopyOption.ATOMIC_MOVE);
           }
+          Files.move(entries.get(0), home, StandardCopyOption.ATOMIC_MOVE);
+          return home;
         }
+        merge(extracted, destination);
+        return home;
       }
+      merge(extracted, destination);
       return destination;
     }
+
+    /** Merge into destination, each file is moved into place atomically. */
+    private static void merge(Path extracted, Path destination) throws Exception {
+      try (var stream = Files.walk(extracted).sorted()) {
+        for (var path : stream.collect(Collectors.toList())) {
+          var target = destination.resolve(extracted.relativize(path).toString());
+          if (Files.isDirectory(path)) {
+            Files.createDirectories(target);
+            continue;
+          }
+          Files.move(
+              path, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+      }
+    }
+
+    /** Download archive from the first uri that succeeds and extract it into the destination. */
+    static Path downloadAndUnzip(
+        Downloader downloader,
+        Consumer<String> logger,
+        boolean offline,
+        Path destination,
+        List<URI> uris)
+        throws Exception {
+      var zip = Downloader.join(downloader.download(logger, offline, destination, uris));
+      return unzip(downloader.cacheHome, zip, destination);
+    }
   }
 }
@@ -40,7 +40,7 @@ class ActionTests {
       return; // skip
     }
     var out = new ArrayList<String>();
-    var bach = new Bach(true, empty);
+    var bach = Util.isolate(new Bach(true, empty), empty);
     bach.log.out = out::add;
     if (action.action == null) {
       assertThrows(NullPointerException.class, () -> action.perform(bach));
@@ -72,7 +72,9 @@ class ActionTests {
             " clean        Delete all generated assets - but keep caches intact.",
             " erase        Delete all generated assets - and also delete caches.",
             " help         Print this help screen on standard out... F1, F1, F1!",
+            " jar          Package compiled main modules as modular JAR files.",
             " launch       Start project's main program.",
+            " link         Link main modules into a cached custom runtime image.",
             " tool         Run named tool consuming all remaining arguments:",
             "                tool <name> <args...>",
             "                tool java --show-version Program.java",
@@ -84,7 +86,7 @@ class ActionTests {
   @SwallowSystem
   void help(SwallowSystem.Streams streams) {
     new Bach().help();
-    assertEquals(13, streams.outLines().size(), streams.toString());
+    assertEquals(15, streams.outLines().size(), streams.toString());
     assertEquals(0, streams.errLines().size(), streams.toString());
   }
 }
@@ -15,6 +15,7 @@
  * limitations under the License.
  */
 
+import static java.util.stream.Collectors.toList;
 import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
@@ -25,8 +26,10 @@ import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.lang.reflect.Modifier;
+import java.net.URI;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
 import org.junit.jupiter.api.Test;
@@ -64,6 +67,22 @@ class BachTests {
     assertEquals(0, main.getExceptionTypes().length);
   }
 
+  @Test
+  void downloaderIsConfiguredByPropertiesFile(@TempDir Path base) throws Exception {
+    Files.write(
+        base.resolve("bach.properties"),
+        List.of(
+            "bach.download.host.limit=3",
+            "bach.download.timeout=PT9S",
+            "bach.tool.home=" + base.resolve("tool").toString().replace('\\', '/')));
+    var downloader = new Bach(true, base).downloader();
+    assertEquals(3, downloader.limit);
+    assertEquals(Duration.ofSeconds(9), downloader.timeout);
+    assertEquals(base.resolve("tool/store"), downloader.store.root);
+    assertSame(downloader, new Bach(true, base).downloader());
+    assertSame(new Bach().downloader(), new Bach().downloader());
+  }
+
   @Test
   void constructDefaultInstance() {
     var bach = new Bach();
@@ -238,8 +257,8 @@ class BachTests {
 
   @Test
   @SwallowSystem
-  void runToolFormat(SwallowSystem.Streams streams) throws Exception {
-    var bach = new Bach(true, Path.of(""));
+  void runToolFormat(SwallowSystem.Streams streams, @TempDir Path temp) throws Exception {
+    var bach = Util.isolate(new Bach(true, Path.of("")), temp);
     bach.properties.setProperty(Bach.Property.RUN_REDIRECT_TYPE.key, "FILE");
     var code = bach.run("format", "--version");
     assertEquals(0, code, streams.toString());
@@ -257,8 +276,8 @@ class BachTests {
 
   @Test
   @SwallowSystem
-  void runToolFormatDryRun(SwallowSystem.Streams streams) throws Exception {
-    var bach = new Bach(true, Path.of(""));
+  void runToolFormatDryRun(SwallowSystem.Streams streams, @TempDir Path temp) throws Exception {
+    var bach = Util.isolate(new Bach(true, Path.of("")), temp);
     bach.properties.setProperty(Bach.Property.RUN_REDIRECT_TYPE.key, "DISCARD");
     Bach.Tool.format(bach, false, List.of(Path.of("src", "bach")));
     assertLinesMatch(
@@ -281,4 +300,28 @@ class BachTests {
       throw new Exception("123");
     }
   }
+
+  @Test
+  void mirroredUrisOfMavenRepositoryComeFirst() {
+    var bach = new Bach();
+    var repository = bach.get(Bach.Property.MAVEN_REPOSITORY);
+    var uri = URI.create(repository + "/g/a/1/a-1.jar");
+    assertEquals(List.of(uri), bach.mirrored(uri));
+    bach.properties.setProperty("bach.maven.mirrors", "file:///m1/ http://m2");
+    var expected = List.of("file:///m1/g/a/1/a-1.jar", "http://m2/g/a/1/a-1.jar", uri.toString());
+    assertEquals(expected, bach.mirrored(uri).stream().map(URI::toString).collect(toList()));
+    var other = URI.create("https://example.com/x.jar");
+    assertEquals(List.of(other), bach.mirrored(other));
+  }
+
+  @Test
+  void additionalRepositoriesAreTriedInConfiguredOrder() {
+    var bach = new Bach();
+    bach.properties.setProperty("bach.maven.repository", "file:///r1 file:///r2 file:///r1");
+    assertEquals("file:///r1", bach.repository());
+    assertEquals(List.of("file:///r1", "file:///r2"), bach.repositories());
+    var uri = URI.create("file:///r1/g/a/1/a-1.jar");
+    var expected = List.of(uri.toString(), "file:///r2/g/a/1/a-1.jar");
+    assertEquals(expected, bach.mirrored(uri).stream().map(URI::toString).collect(toList()));
+  }
 }
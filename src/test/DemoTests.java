@@ -21,6 +21,8 @@ import static org.junit.jupiter.api.Assertions.assertLinesMatch;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
@@ -43,14 +45,14 @@ class DemoTests {
       Bach.Util.treeCopy(demo, base);
 
       var log = new ArrayList<String>();
-      var bach = new Bach(true, base);
+      var bach = Util.isolate(new Bach(true, base), workspace);
       bach.log.out = log::add;
       bach.properties.setProperty(Bach.Property.RUN_REDIRECT_TYPE.key, "FILE");
 
       assertEquals(base, bach.base);
       assertEquals(name, bach.project.name);
       assertEquals("1.0.0-SNAPSHOT", bach.project.version);
-      var program = Bach.ModuleInfo.findProgram(base.resolve("src"));
+      var program = ModuleInfo.findProgram(base.resolve("src"));
       assertEquals("com.greetings/com.greetings.Main", program);
       var resources = Path.of("src", "test-resources");
       var cleanTreeWalk = resources.resolve(demo.resolveSibling(name + ".clean.txt"));
@@ -66,7 +68,13 @@ class DemoTests {
 
       var buildTreeWalk = resources.resolve(demo.resolveSibling(name + ".build.txt"));
       assertLinesMatch(Files.readAllLines(buildTreeWalk), Util.treeWalk(base));
+      // resolution runs concurrently with compilation, its lines are checked apart
+      var resolution = resources.resolve(demo.resolveSibling(name + ".resolution.txt"));
+      if (Files.exists(resolution)) {
+        assertLinesMatch(Files.readAllLines(resolution), resolution(log));
+      }
       var logLines = resources.resolve(demo.resolveSibling(name + ".log.txt"));
+      log.removeAll(resolution(log));
       assertLinesMatch(Files.readAllLines(logLines), log);
 
       bach.erase();
@@ -75,6 +83,13 @@ class DemoTests {
     }
   }
 
+  /** Filter resolution lines, the build pipeline logs them concurrently. */
+  private static List<String> resolution(List<String> lines) {
+    return lines.stream()
+        .filter(line -> line.matches("(External module names: |Downloaded |Resolved ).+"))
+        .collect(Collectors.toList());
+  }
+
   @Test
   void scaffold(@TempDir Path workspace) throws Exception {
     var name = "scaffold";
@@ -83,7 +98,7 @@ class DemoTests {
     Bach.Util.treeCopy(demo, base);
 
     var log = new ArrayList<String>();
-    var bach = new Bach(true, base);
+    var bach = Util.isolate(new Bach(true, base), workspace);
     bach.log.out = log::add;
     bach.properties.setProperty(Bach.Property.RUN_REDIRECT_TYPE.key, "FILE");
     var expected = Path.of("src", "test-resources");
@@ -0,0 +1,448 @@
+/*
+ * Bach - Java Shell Builder
+ * Copyright (C) 2019 Christian Stein
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertLinesMatch;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class DownloaderTests {
+
+  private final AtomicInteger requests = new AtomicInteger();
+  private final AtomicInteger active = new AtomicInteger();
+  private final AtomicInteger maximum = new AtomicInteger();
+  private final AtomicInteger checksums = new AtomicInteger();
+  private final CountDownLatch latch = new CountDownLatch(1);
+  private HttpServer server;
+
+  @BeforeEach
+  void startServer() throws Exception {
+    server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.setExecutor(java.util.concurrent.Executors.newCachedThreadPool());
+    server.createContext(
+        "/",
+        exchange -> {
+          var path = exchange.getRequestURI().getPath();
+          var checksum = path.endsWith(".sha256") || path.endsWith(".sha1");
+          if (checksum) {
+            checksums.incrementAndGet();
+          } else {
+            requests.incrementAndGet();
+          }
+          maximum.accumulateAndGet(active.incrementAndGet(), Math::max);
+          try {
+            if (path.startsWith("/slow")) {
+              latch.await();
+            }
+            if (path.endsWith("missing.txt") || (checksum && !path.startsWith("/sum"))) {
+              exchange.sendResponseHeaders(404, -1);
+              return;
+            }
+            if (path.startsWith("/down")) {
+              exchange.sendResponseHeaders(503, -1);
+              return;
+            }
+            var etag = "\"" + path.hashCode() + "\"";
+            if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+              exchange.sendResponseHeaders(304, -1);
+              return;
+            }
+            var bytes =
+                path.endsWith(".zip") ? zip() : content(path).getBytes(StandardCharsets.UTF_8);
+            if (checksum) {
+              var content = content(path.replace(".sha256", "")).replace("corrupt", "content");
+              var sha256 = MessageDigest.getInstance("SHA-256");
+              var data = path.contains(".zip") ? zip() : content.getBytes(StandardCharsets.UTF_8);
+              var hash = Store.hex(sha256.digest(data));
+              bytes = (hash + "  " + content + "\n").getBytes(StandardCharsets.UTF_8);
+            }
+            exchange.getResponseHeaders().add("ETag", etag);
+            var modified =
+                path.startsWith("/baddate") ? "yesterday" : "Tue, 15 Nov 1994 08:12:31 GMT";
+            exchange.getResponseHeaders().add("Last-Modified", modified);
+            exchange.sendResponseHeaders(200, bytes.length);
+            exchange.getResponseBody().write(bytes);
+          } catch (InterruptedException | NoSuchAlgorithmException e) {
+            throw new IOException(e);
+          } finally {
+            active.decrementAndGet();
+            exchange.close();
+          }
+        });
+    server.start();
+  }
+
+  @AfterEach
+  void stopServer() {
+    latch.countDown();
+    server.stop(0);
+  }
+
+  private static String content(String path) {
+    if (path.startsWith("/sum/mirror")) {
+      return path.replace("/mirror", "");
+    }
+    return path.startsWith("/big") ? path.repeat(10) : path;
+  }
+
+  private static byte[] zip() throws IOException {
+    var bytes = new ByteArrayOutputStream();
+    try (var stream = new ZipOutputStream(bytes)) {
+      // fixed entry times, the published checksum must match every response
+      for (var name : List.of("tool-1/", "tool-1/bin/tool")) {
+        var entry = new ZipEntry(name);
+        entry.setTime(0);
+        stream.putNextEntry(entry);
+      }
+      stream.write("echo tool".getBytes(StandardCharsets.UTF_8));
+    }
+    return bytes.toByteArray();
+  }
+
+  private URI uri(String path) {
+    return URI.create("http://127.0.0.1:" + server.getAddress().getPort() + path);
+  }
+
+  @Test
+  void downloadFromLocalServer(@TempDir Path temp) throws Exception {
+    var log = new ArrayList<String>();
+    var uri = uri("/a/b/1.0/b-1.0.txt");
+    var downloader = Util.downloader(temp);
+    var first = Bach.Util.download(downloader, log::add, false, temp, uri);
+    assertEquals("/a/b/1.0/b-1.0.txt", Files.readString(first));
+    var second = Bach.Util.download(downloader, log::add, false, temp, uri);
+    assertEquals(first, second);
+    assertLinesMatch(
+        List.of(
+            "download(" + uri + ")",
+            ">> TRANSFER >>",
+            "Downloaded b-1.0.txt successfully.",
+            "download(" + uri + ")",
+            "Metadata of .+ is fresh, skipping request.",
+            "Already downloaded b-1.0.txt previously."),
+        log);
+  }
+
+  @Test
+  void downloadMissingFileFails(@TempDir Path temp) {
+    var uri = uri("/missing.txt");
+    var downloader = Util.downloader(temp);
+    var e =
+        assertThrows(
+            Exception.class, () -> Bach.Util.download(downloader, __ -> {}, false, temp, uri));
+    assertEquals("HTTP 404 for " + uri, e.getMessage());
+  }
+
+  @Test
+  void identicalDownloadsInFlightAreJoined(@TempDir Path temp) throws Exception {
+    var downloader = Util.downloader(temp, 4, new Store(temp.resolve("store")), Duration.ZERO);
+    var uri = uri("/slow/c.txt");
+    var first = downloader.download(__ -> {}, false, temp, uri);
+    var second = downloader.download(__ -> {}, false, temp, uri);
+    assertSame(first, second);
+    latch.countDown();
+    assertEquals(temp.resolve("c.txt"), first.join());
+    assertEquals(1, requests.get());
+  }
+
+  @Test
+  void concurrentDownloadsPerHostAreLimited(@TempDir Path temp) throws Exception {
+    var downloader = Util.downloader(temp, 2, new Store(temp.resolve("store")), Duration.ZERO);
+    var futures = new ArrayList<CompletableFuture<Path>>();
+    for (var i = 0; i < 6; i++) {
+      futures.add(downloader.download(__ -> {}, false, temp, uri("/slow/" + i + ".txt")));
+    }
+    Thread.sleep(200);
+    latch.countDown();
+    CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).join();
+    assertEquals(6, requests.get());
+    assertTrue(maximum.get() <= 2, "maximum concurrent transfers: " + maximum.get());
+  }
+
+  @Test
+  void verifiedDownloadsAreLinkedFromStore(@TempDir Path temp) throws Exception {
+    var downloader = Util.downloader(temp, 4, new Store(temp.resolve("store")), Duration.ZERO);
+    var uri = uri("/sum/content.txt");
+    var mirror = uri("/sum/mirror/content.txt");
+    var log = new ArrayList<String>();
+    var first = downloader.download(log::add, false, temp.resolve("first"), uri).join();
+    var second = downloader.download(log::add, false, temp.resolve("second"), mirror).join();
+    assertEquals("/sum/content.txt", Files.readString(first));
+    assertEquals("/sum/content.txt", Files.readString(second));
+    assertEquals(2, requests.get());
+    assertLinesMatch(
+        List.of(
+            "download(" + uri + ")",
+            "Transferring " + uri,
+            " o Verified -> sha256 .+",
+            ">> TRANSFER >>",
+            "Downloaded content.txt successfully.",
+            "download(" + mirror + ")",
+            "Materialized .+ from .+",
+            "Downloaded content.txt successfully."),
+        log);
+  }
+
+  @Test
+  void unpublishedChecksumsAreNotRequestedAgain(@TempDir Path temp) throws Exception {
+    var downloader = Util.downloader(temp, 4, new Store(temp.resolve("store")), Duration.ZERO);
+    downloader.download(__ -> {}, false, temp, uri("/k.txt")).join();
+    assertEquals(2, checksums.get());
+    downloader.download(__ -> {}, false, temp, uri("/l.txt")).join();
+    assertEquals(2, checksums.get());
+    assertEquals(2, requests.get());
+  }
+
+  @Test
+  void missingFileFails(@TempDir Path temp) {
+    var downloader = Util.downloader(temp, 4, new Store(temp.resolve("store")), Duration.ZERO);
+    var future = downloader.download(__ -> {}, false, temp, uri("/missing.txt"));
+    assertThrows(Exception.class, () -> Downloader.join(future));
+    assertEquals(1, requests.get());
+  }
+
+  @Test
+  void failingHostFailsOverToMirror(@TempDir Path temp) throws Exception {
+    var downloader = Util.downloader(temp, 4, new Store(temp.resolve("store")), Duration.ZERO);
+    var mirror = Files.createDirectories(temp.resolve("mirror")).resolve("4.txt");
+    Files.writeString(mirror, "mirrored");
+    var uris = List.of(uri("/down/4.txt"), mirror.toUri());
+    var path = Downloader.join(downloader.download(__ -> {}, false, temp, uris));
+    assertEquals("mirrored", Files.readString(path));
+    assertEquals(1, requests.get());
+  }
+
+  @Test
+  void archiveIsDownloadedAndExtracted(@TempDir Path temp) throws Exception {
+    var uri = uri("/zip/" + System.nanoTime() + "/tool.zip");
+    var destination = temp.resolve("tool");
+    var log = new ArrayList<String>();
+    var home =
+        Bach.Util.downloadAndUnzip(
+            Util.downloader(temp), log::add, false, destination, List.of(uri));
+    assertEquals(destination.resolve("tool-1"), home);
+    assertEquals("echo tool", Files.readString(home.resolve("bin/tool")));
+    assertLinesMatch(
+        List.of("tool-1", "tool-1/bin", "tool-1/bin/tool"),
+        Util.treeWalk(destination).stream()
+            .filter(name -> name.startsWith("tool-1"))
+            .collect(Collectors.toList()));
+
+    // unchanged archive is neither transferred nor extracted again
+    Files.delete(home.resolve("bin/tool"));
+    assertEquals(
+        home,
+        Bach.Util.downloadAndUnzip(
+            Util.downloader(temp), __ -> {}, false, destination, List.of(uri)));
+    assertTrue(Files.notExists(home.resolve("bin/tool")));
+    assertEquals(2, requests.get()); // revalidated, answered with 304
+  }
+
+  @Test
+  void archiveWithPublishedChecksumIsVerifiedAndExtracted(@TempDir Path temp) throws Exception {
+    var downloader = Util.downloader(temp, 4, new Store(temp.resolve("store")), Duration.ZERO);
+    var uri = uri("/sum/zip/" + System.nanoTime() + "/tool.zip");
+    var destination = temp.resolve("tool");
+    var log = new ArrayList<String>();
+    var home = Bach.Util.downloadAndUnzip(downloader, log::add, false, destination, List.of(uri));
+    assertEquals("echo tool", Files.readString(home.resolve("bin/tool")));
+    assertTrue(log.contains(" o Verified -> sha256 " + Store.hex(sha256(zip()))), log.toString());
+  }
+
+  private static byte[] sha256(byte[] bytes) throws Exception {
+    return MessageDigest.getInstance("SHA-256").digest(bytes);
+  }
+
+  @Test
+  void checksumMismatchFails(@TempDir Path temp) {
+    var store = temp.resolve("store");
+    var downloader = Util.downloader(temp, 4, new Store(store), Duration.ZERO);
+    var uri = uri("/sum/corrupt.txt");
+    var future = downloader.download(__ -> {}, false, temp, uri);
+    var e = assertThrows(Exception.class, () -> Downloader.join(future));
+    assertTrue(e.getMessage().startsWith("sha256 checksum mismatch for " + uri), e.getMessage());
+    assertTrue(Files.notExists(temp.resolve("corrupt.txt")));
+    assertTrue(Files.notExists(store.resolve("sha256")));
+  }
+
+  @Test
+  void expiredMetadataSendsConditionalRequest(@TempDir Path temp) throws Exception {
+    var downloader = Util.downloader(temp, 4, new Store(temp.resolve("store")), Duration.ZERO);
+    var uri = uri("/d.txt");
+    var log = new ArrayList<String>();
+    var target = downloader.download(log::add, false, temp, uri).join();
+    assertTrue(Files.exists(Downloader.metadataFile(target)));
+    downloader.download(log::add, false, temp, uri).join();
+    assertEquals(2, requests.get());
+    assertLinesMatch(
+        List.of(
+            "download(" + uri + ")",
+            ">> TRANSFER >>",
+            "Downloaded d.txt successfully.",
+            "download(" + uri + ")",
+            "Remote source not modified: " + uri,
+            "Already downloaded d.txt previously."),
+        log);
+  }
+
+  @Test
+  void freshMetadataSkipsNetwork(@TempDir Path temp) throws Exception {
+    var store = new Store(temp.resolve("store"));
+    var downloader = Util.downloader(temp, 4, store, Duration.ofHours(1));
+    var releaseUri = uri("/org/e/1.0/e-1.0.jar");
+    var snapshotUri = uri("/org/e/1.1-SNAPSHOT/e-1.1-SNAPSHOT.jar");
+    var branchUri = uri("/raw/master/demo/e.zip");
+    var release = downloader.download(__ -> {}, false, temp, releaseUri).join();
+    var snapshot = downloader.download(__ -> {}, false, temp, snapshotUri).join();
+    var branch = downloader.download(__ -> {}, false, temp, branchUri).join();
+    assertEquals(3, requests.get());
+    assertEquals(release, downloader.download(__ -> {}, false, temp, releaseUri).join());
+    assertEquals(3, requests.get());
+    downloader.download(__ -> {}, false, temp, snapshotUri).join();
+    assertEquals(4, requests.get());
+    downloader.download(__ -> {}, false, temp, branchUri).join();
+    assertEquals(5, requests.get());
+    Files.writeString(release, "tampered");
+    downloader.download(__ -> {}, false, temp, releaseUri).join();
+    assertEquals(6, requests.get());
+    assertEquals("/org/e/1.0/e-1.0.jar", Files.readString(release));
+    assertTrue(Files.exists(snapshot));
+    assertTrue(Files.exists(branch));
+  }
+
+  @Test
+  void onlyVersionedMavenArtifactsAreReleases() {
+    var maven = "https://repo1.maven.org/maven2/org/junit/platform/junit-platform-console/";
+    assertTrue(isRelease(maven + "1.4.0/junit-platform-console-1.4.0.jar"));
+    assertTrue(isRelease(maven + "1.4.0/junit-platform-console-1.4.0-sources.jar"));
+    assertFalse(isRelease(maven + "1.5-SNAPSHOT/junit-platform-console-1.5-SNAPSHOT.jar"));
+    assertFalse(isRelease("https://github.com/sormuras/bach/raw/master/demo/scaffold.zip"));
+    assertFalse(isRelease("https://example.com/generated/module-maven.properties"));
+  }
+
+  private static boolean isRelease(String uri) {
+    return Downloader.isRelease(URI.create(uri));
+  }
+
+  @Test
+  void malformedLastModifiedIsIgnored(@TempDir Path temp) throws Exception {
+    var downloader = Util.downloader(temp, 4, new Store(temp.resolve("store")), Duration.ZERO);
+    var uri = uri("/baddate/d.txt");
+    var target = downloader.download(__ -> {}, false, temp, uri).join();
+    assertEquals("/baddate/d.txt", Files.readString(target));
+    assertEquals(1, requests.get());
+  }
+
+  @Test
+  void storedReleaseIsMaterializedWithoutNetwork(@TempDir Path temp) throws Exception {
+    var downloader =
+        Util.downloader(temp, 4, new Store(temp.resolve("store")), Duration.ofHours(1));
+    var uri = uri("/c/i/1.0/i-1.0.jar");
+    var log = new ArrayList<String>();
+    downloader.download(log::add, false, temp.resolve("first"), uri).join();
+    var second = downloader.download(log::add, false, temp.resolve("second"), uri).join();
+    assertEquals("/c/i/1.0/i-1.0.jar", Files.readString(second));
+    assertEquals(1, requests.get());
+    assertLinesMatch(
+        List.of(
+            "download(" + uri + ")",
+            ">> TRANSFER >>",
+            "download(" + uri + ")",
+            "Materialized .+ from .+",
+            "Downloaded i-1.0.jar successfully."),
+        log);
+  }
+
+  @Test
+  void storedReleaseVerifiedByChecksumIsMaterializedWithoutNetwork(@TempDir Path temp)
+      throws Exception {
+    var downloader = Util.downloader(temp, 4, new Store(temp.resolve("store")), Duration.ZERO);
+    var uri = uri("/sum/i/1.0/i-1.0.jar");
+    downloader.download(__ -> {}, false, temp.resolve("first"), uri).join();
+    var second = downloader.download(__ -> {}, false, temp.resolve("second"), uri).join();
+    assertEquals("/sum/i/1.0/i-1.0.jar", Files.readString(second));
+    assertEquals(1, requests.get());
+  }
+
+  @Test
+  void staleStoredReleaseWithoutChecksumIsRequestedAgain(@TempDir Path temp) throws Exception {
+    var downloader = Util.downloader(temp, 4, new Store(temp.resolve("store")), Duration.ZERO);
+    var uri = uri("/c/i/1.0/i-1.0.jar");
+    downloader.download(__ -> {}, false, temp.resolve("first"), uri).join();
+    var second = downloader.download(__ -> {}, false, temp.resolve("second"), uri).join();
+    assertEquals("/c/i/1.0/i-1.0.jar", Files.readString(second));
+    assertEquals(2, requests.get());
+  }
+
+  @Test
+  void mirrorsAreTriedInOrderAndFileRepositoriesLinked(@TempDir Path temp) throws Exception {
+    var downloader = Util.downloader(temp, 4, new Store(temp.resolve("store")), Duration.ZERO);
+    var repository = Files.createDirectories(temp.resolve("repository"));
+    var jar = Files.writeString(repository.resolve("j-1.0.jar"), "j");
+    var uris = List.of(uri("/missing.txt"), jar.toUri(), uri("/j-1.0.jar"));
+    var log = new ArrayList<String>();
+    var target = downloader.download(log::add, false, temp.resolve("lib"), uris).join();
+    assertEquals("j", Files.readString(target));
+    assertEquals(Files.getLastModifiedTime(jar), Files.getLastModifiedTime(target));
+    assertEquals(1, requests.get());
+    assertTrue(
+        log.stream().anyMatch(line -> line.startsWith("Trying next mirror ")), log.toString());
+  }
+
+  @Test
+  void offlineModeRejectsIncompleteArchivesWithoutCompletionMarker(@TempDir Path temp)
+      throws Exception {
+    var downloader = Util.downloader(temp, 4, new Store(temp.resolve("store")), Duration.ZERO);
+    var complete = temp.resolve("complete.jar");
+    try (var stream = new ZipOutputStream(Files.newOutputStream(complete))) {
+      stream.putNextEntry(new ZipEntry("module-info.class"));
+    }
+    assertEquals(complete, downloader.download(__ -> {}, true, temp, uri("/complete.jar")).join());
+    var truncated = Files.write(temp.resolve("truncated.jar"), new byte[] {'P', 'K', 3, 4});
+    var uri = uri("/truncated.jar");
+    var future = downloader.download(__ -> {}, true, temp, uri);
+    var e = assertThrows(Exception.class, () -> Downloader.join(future));
+    assertEquals("Target is incomplete and being offline: " + truncated, e.getMessage());
+    assertEquals(0, requests.get());
+  }
+}
@@ -1,16 +1,22 @@
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertLinesMatch;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.fail;
 
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.ValueSource;
 
@@ -18,7 +24,7 @@ class ModuleInfoTests {
 
   @Test
   void moduleInfoEmpty() {
-    var info = Bach.ModuleInfo.of("module foo {}");
+    var info = ModuleInfo.of("module foo {}");
     assertEquals("foo", info.name);
     assertTrue(info.requires.isEmpty());
   }
@@ -26,21 +32,21 @@ class ModuleInfoTests {
   @Test
   void moduleInfoFromModuleWithoutNameFails() {
     var source = "module { no name }";
-    Exception e = assertThrows(IllegalArgumentException.class, () -> Bach.ModuleInfo.of(source));
+    Exception e = assertThrows(IllegalArgumentException.class, () -> ModuleInfo.of(source));
     assertEquals("expected java module descriptor unit, but got: " + source, e.getMessage());
   }
 
   @Test
   void moduleInfoFromNonExistingFileFails() {
     var source = Path.of(".", "module-info.java");
-    var exception = assertThrows(Exception.class, () -> Bach.ModuleInfo.of(source));
+    var exception = assertThrows(Exception.class, () -> ModuleInfo.of(source));
     assertEquals("reading '" + source + "' failed", exception.getMessage());
   }
 
   @Test
   void moduleInfoRequiresBarAndBaz() {
     var source = "module   foo{requires a; requires static b; requires any modifier c;}";
-    var info = Bach.ModuleInfo.of(source);
+    var info = ModuleInfo.of(source);
     assertEquals("foo", info.name);
     assertEquals(3, info.requires.size());
     assertTrue(info.requires.contains("a"));
@@ -51,7 +57,7 @@ class ModuleInfoTests {
   @Test
   void moduleInfoFromDirectory() {
     var path = Path.of("demo", "jigsaw-quick-start", "greetings", "src", "com.greetings");
-    var info = Bach.ModuleInfo.of(path);
+    var info = ModuleInfo.of(path);
     assertEquals("com.greetings", info.name);
     assertEquals(0, info.requires.size());
   }
@@ -63,12 +69,20 @@ class ModuleInfoTests {
     if (resource == null) {
       fail("resource not found!");
     }
-    var info = Bach.ModuleInfo.of(Path.of(resource.toURI()));
+    var info = ModuleInfo.of(Path.of(resource.toURI()));
     assertEquals("com.google.m", info.name);
     assertEquals(3, info.requires.size());
     assertTrue(info.requires.contains("com.google.r1"));
     assertTrue(info.requires.contains("com.google.r2"));
     assertTrue(info.requires.contains("com.google.r3"));
+    assertEquals(Set.of("transitive"), info.modifiers.get("com.google.r2"));
+    assertEquals(Set.of("static"), info.modifiers.get("com.google.r3"));
+    assertEquals(
+        Set.of("com.google.e2", "com.google.e3", "com.google.e4"),
+        info.exports.get("com.google.e1"));
+    assertEquals(1, info.opens.size());
+    assertEquals(Set.of("Foo", "com.google.Bar"), info.uses);
+    assertEquals(List.of("Foo", "Foo", "com.google.Bar"), info.provides.get("com.google.Baz"));
   }
 
   @ParameterizedTest
@@ -84,9 +98,40 @@ class ModuleInfoTests {
   }
 
   @Test
-  void readModuleNameReturnsWrongNameWithContrivedComment() {
+  void readModuleNameIgnoresContrivedComments() {
     var src = "/**\n * Some module literal {@code followed} by a curly bracket.\n */ module a {";
-    assertModuleNameIs("literal", src);
+    assertModuleNameIs("a", src);
+    assertModuleNameIs("a", "// module b {\nmodule /* c { */ a // d {\n{");
+  }
+
+  @Test
+  void readOpenModuleWithAnnotations() {
+    var src =
+        "import a.A;\n@A(value = \"module b {\", more = {1, 2})\n@Deprecated open module a {}";
+    var info = ModuleInfo.of(src);
+    assertEquals("a", info.name);
+    assertTrue(info.open);
+    assertFalse(ModuleInfo.of("module a {}").open);
+  }
+
+  @Test
+  void readDirectivesOfModuleDescriptor() {
+    var source =
+        "module m {"
+            + "  requires transitive; requires static transitive t; requires java.logging;"
+            + "  exports p; exports q to a, b;"
+            + "  opens o to c;"
+            + "  uses s.S;"
+            + "  provides s.S with s.A, s.B;"
+            + "}";
+    var info = ModuleInfo.of(source);
+    assertEquals(Set.of("transitive", "t", "java.logging"), info.requires);
+    assertEquals(Set.of(), info.modifiers.get("transitive"));
+    assertEquals(Set.of("static", "transitive"), info.modifiers.get("t"));
+    assertEquals(Map.of("p", Set.of(), "q", Set.of("a", "b")), info.exports);
+    assertEquals(Map.of("o", Set.of("c")), info.opens);
+    assertEquals(Set.of("s.S"), info.uses);
+    assertEquals(Map.of("s.S", List.of("s.A", "s.B")), info.provides);
   }
 
   @Test
@@ -98,12 +143,26 @@ class ModuleInfoTests {
   }
 
   private void assertModuleNameIs(String expected, String source) {
-    assertEquals(expected, Bach.ModuleInfo.of(source).name);
+    assertEquals(expected, ModuleInfo.of(source).name);
+  }
+
+  @Test
+  void cacheServesUnchangedDescriptorsWithoutParsing(@TempDir Path temp) throws Exception {
+    var file = Files.writeString(temp.resolve("module-info.java"), "module a { requires b; }");
+    var cache = new ModuleInfo.Cache();
+    var info = cache.get(file);
+    assertEquals("a", info.name);
+    assertSame(info, cache.get(file));
+    Files.writeString(file, "module a { requires b; requires c; }");
+    Files.setLastModifiedTime(file, FileTime.fromMillis(0));
+    var changed = cache.get(file);
+    assertNotSame(info, changed);
+    assertEquals(Set.of("b", "c"), changed.requires);
   }
 
   @Test
   void findSystemModuleNames() {
-    var names = Bach.ModuleInfo.findSystemModuleNames();
+    var names = ModuleInfo.findSystemModuleNames();
     assertTrue(names.contains("java.base"));
     assertTrue(names.contains("java.compiler"));
     assertTrue(names.contains("java.desktop"));
@@ -118,9 +177,17 @@ class ModuleInfoTests {
     assertFalse(names.contains("world"));
   }
 
+  @Test
+  void findSystemModules() {
+    var modules = ModuleInfo.findSystemModules();
+    assertSame(modules, ModuleInfo.findSystemModules());
+    assertTrue(modules.get("java.base").exports.containsKey("java.lang"));
+    assertEquals(Set.of("transitive"), modules.get("java.sql").modifiers.get("java.logging"));
+  }
+
   @Test
   void findExternalModuleNamesInDemoProjects() {
-    var names = Bach.ModuleInfo.findExternalModuleNames(Set.of(Path.of("demo")));
+    var names = ModuleInfo.findExternalModuleNames(Set.of(Path.of("demo")));
     assertTrue(names.contains("org.junit.jupiter.api"));
     assertFalse(names.contains("java.base"));
     assertFalse(names.contains("hello"));
@@ -130,13 +197,13 @@ class ModuleInfoTests {
   @Test
   void findExternalModuleNamesForNonExistingPathFails() {
     var paths = Set.of(Path.of("does not exist"));
-    var e = assertThrows(Exception.class, () -> Bach.ModuleInfo.findExternalModuleNames(paths));
+    var e = assertThrows(Exception.class, () -> ModuleInfo.findExternalModuleNames(paths));
     assertEquals("walking path failed for: does not exist", e.getMessage());
   }
 
   @Test
   void findProgramsInDemoProjects() throws Exception {
-    var programs = Bach.ModuleInfo.findPrograms(Path.of("demo"), false);
+    var programs = ModuleInfo.findPrograms(Path.of("demo"), false);
     Collections.sort(programs);
     assertLinesMatch(
         List.of(
@@ -152,14 +219,14 @@ class ModuleInfoTests {
   @Test
   void findProgramInDemoScaffoldProject() throws Exception {
     var scaffold = Path.of("demo", "scaffold");
-    assertEquals("scaffold/scaffold.ScaffoldMain", Bach.ModuleInfo.findProgram(scaffold));
-    assertNull(Bach.ModuleInfo.findProgram(scaffold.resolve("src/test")));
+    assertEquals("scaffold/scaffold.ScaffoldMain", ModuleInfo.findProgram(scaffold));
+    assertNull(ModuleInfo.findProgram(scaffold.resolve("src/test")));
   }
 
   @Test
   void findProgramInSrcDirectoryFails() {
     var root = Path.of("src", "bach");
-    var e = assertThrows(IllegalStateException.class, () -> Bach.ModuleInfo.findProgram(root));
+    var e = assertThrows(IllegalStateException.class, () -> ModuleInfo.findProgram(root));
     assertEquals(
         "expected 'module-info.java' in parents of " + root.resolve("Bach.java"), e.getMessage());
   }
@@ -167,13 +234,13 @@ class ModuleInfoTests {
   @Test
   void findProgramInTestResourcesProgramHappy() throws Exception {
     var root = Path.of("src", "test-resources", "program", "happy");
-    assertEquals("happy/bar.Bar", Bach.ModuleInfo.findProgram(root));
+    assertEquals("happy/bar.Bar", ModuleInfo.findProgram(root));
   }
 
   @Test
   void findProgramInTestResourcesProgramNoPackage() {
     var root = Path.of("src", "test-resources", "program", "no-package");
-    var e = assertThrows(IllegalStateException.class, () -> Bach.ModuleInfo.findProgram(root));
+    var e = assertThrows(IllegalStateException.class, () -> ModuleInfo.findProgram(root));
     assertEquals(
         "expected package to be declared in " + root.resolve("foo/Bar.java"), e.getMessage());
   }
@@ -181,7 +248,7 @@ class ModuleInfoTests {
   @Test
   void findProgramInTestResourcesProgramNoType() {
     var root = Path.of("src", "test-resources", "program", "no-type");
-    var e = assertThrows(IllegalStateException.class, () -> Bach.ModuleInfo.findProgram(root));
+    var e = assertThrows(IllegalStateException.class, () -> ModuleInfo.findProgram(root));
     assertEquals(
         "expected java compilation unit, but got: " + root.resolve("foo/Bar.java"), e.getMessage());
   }
@@ -19,14 +19,19 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertLinesMatch;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.lang.module.ModuleFinder;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Properties;
+import java.util.spi.ToolProvider;
+import java.util.stream.Collectors;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.condition.DisabledIfSystemProperty;
 import org.junit.jupiter.api.io.TempDir;
@@ -79,7 +84,7 @@ class ProjectTests {
     Bach.Util.treeCopy(demo, base);
 
     var out = new ArrayList<String>();
-    var bach = new Bach(true, base);
+    var bach = Util.isolate(new Bach(true, base), workspace);
     bach.log.out = out::add;
     var project = bach.project;
 
@@ -108,7 +113,7 @@ class ProjectTests {
     assertLinesMatch(
         List.of(
             "build()",
-            "assemble()",
+            "compile()",
             ">> ASSEMBLE >>",
             "main.compile()",
             ">> BUILD >>",
@@ -123,6 +128,192 @@ class ProjectTests {
     assertLinesMatch(List.of("launch()", "No <module>[/<main-class>] supplied, no launch."), out);
   }
 
+  @Test
+  void jarPackagesModulesWithMainClassAndSkipsUnchangedOnes(@TempDir Path workspace)
+      throws Exception {
+    var demo = Path.of("src", "test-resources", "program", "minimal");
+    var base = workspace.resolve(demo.getFileName());
+    Bach.Util.treeCopy(demo, base);
+    var bach = Util.isolate(new Bach(true, base), workspace);
+    var out = new ArrayList<String>();
+    bach.log.out = out::add;
+
+    bach.project.main.compile();
+    bach.jar();
+    var jar = bach.project.modules.resolve("minimal.jar");
+    var descriptor = ModuleFinder.of(jar).find("minimal").orElseThrow().descriptor();
+    assertEquals("modular.Program", descriptor.mainClass().orElseThrow());
+    assertEquals("1.0.0-SNAPSHOT", descriptor.rawVersion().orElseThrow());
+    assertTrue(out.contains("Packaged minimal as " + jar), out.toString());
+
+    out.clear();
+    bach.project.main.compile();
+    bach.jar();
+    assertTrue(out.contains("Skip jar " + jar + ": classes of minimal unchanged"), out.toString());
+  }
+
+  @Test
+  void linkReusesCachedRuntimeImageAndLaunchesFromIt(@TempDir Path workspace) throws Exception {
+    var demo = Path.of("src", "test-resources", "program", "minimal");
+    var base = workspace.resolve(demo.getFileName());
+    Bach.Util.treeCopy(demo, base);
+    var bach = Util.isolate(new Bach(true, base), workspace);
+    bach.properties.setProperty(Bach.Property.LINK_CDS_ARCHIVE.key, "false");
+    bach.properties.setProperty(Bach.Property.PROJECT_LAUNCH_IMAGE.key, "true");
+    var out = new ArrayList<String>();
+    bach.log.out = out::add;
+
+    bach.project.main.compile();
+    var image = bach.project.link();
+    assertEquals(bach.project.cache.resolve("images"), image.getParent());
+    assertTrue(Files.isDirectory(image.resolve("bin")));
+    assertTrue(out.contains("Linked runtime image " + image), out.toString());
+
+    out.clear();
+    bach.launch();
+    assertTrue(out.contains("Using cached runtime image " + image), out.toString());
+    assertTrue(
+        out.contains("Launching minimal/modular.Program from runtime image " + image + "..."),
+        out.toString());
+  }
+
+  @Test
+  void loadModuleTableWithinTimeToLiveUsesIndex(@TempDir Path base) throws Exception {
+    var bach = Util.isolate(new Bach(true, base), base);
+    var out = new ArrayList<String>();
+    bach.log.out = out::add;
+    var properties = new Properties();
+    properties.setProperty("org.junit.jupiter.api", "org.junit.jupiter:junit-jupiter-api");
+    var index = Files.createDirectories(bach.project.cache).resolve("module-maven.index");
+    Store.writeProperties(index, properties, null);
+
+    var table = bach.project.loadModuleTable("module-maven");
+    assertEquals("org.junit.jupiter:junit-jupiter-api", table.getProperty("org.junit.jupiter.api"));
+    assertTrue(out.contains("Using cached module table " + index), out.toString());
+  }
+
+  @Test
+  @DisabledIfSystemProperty(named = "bach.offline", matches = "true")
+  void assembleExternalModulesResolvesTransitiveModules(@TempDir Path base) throws Exception {
+    var foo = Files.createDirectories(base.resolve("src/foo"));
+    Files.writeString(
+        foo.resolve("module-info.java"), "module foo { requires org.junit.jupiter.api; }");
+    var maven = new Properties();
+    var version = new Properties();
+    maven.setProperty("org.apiguardian.api", "org.apiguardian:apiguardian-api");
+    version.setProperty("org.apiguardian.api", "1.1.0");
+    maven.setProperty("org.junit.jupiter.api", "org.junit.jupiter:junit-jupiter-api");
+    version.setProperty("org.junit.jupiter.api", "5.7.0");
+    maven.setProperty("org.junit.platform.commons", "org.junit.platform:junit-platform-commons");
+    version.setProperty("org.junit.platform.commons", "1.7.0");
+    maven.setProperty("org.opentest4j", "org.opentest4j:opentest4j");
+    version.setProperty("org.opentest4j", "1.2.0");
+    var bach = Util.isolate(new Bach(true, base), base);
+    var cache = Files.createDirectories(bach.project.cache);
+    Store.writeProperties(cache.resolve("module-maven.index"), maven, null);
+    Store.writeProperties(cache.resolve("module-version.index"), version, null);
+    var out = new ArrayList<String>();
+    bach.log.out = out::add;
+
+    bach.project.assembleExternalModules();
+    assertTrue(out.contains("External module names: [org.junit.jupiter.api]"), out.toString());
+    assertTrue(
+        out.contains(
+            "Transitive external module names: "
+                + "[org.apiguardian.api, org.junit.platform.commons, org.opentest4j]"),
+        out.toString());
+    assertLinesMatch(
+        List.of(
+            "apiguardian-api-1.1.0.jar",
+            "junit-jupiter-api-5.7.0.jar",
+            "junit-platform-commons-1.7.0.jar",
+            "opentest4j-1.2.0.jar"),
+        Util.treeWalk(bach.project.cachedModules).stream()
+            .filter(name -> name.endsWith(".jar"))
+            .collect(Collectors.toList()));
+  }
+
+  @Test
+  void assembleExternalModulesPrefersLocalModules(@TempDir Path base) throws Exception {
+    var m2 = base.resolve("m2");
+    var jar = jar(base, "bar", m2.resolve("com/example/bar/1/bar-1.jar"));
+    jar(base, "baz", base.resolve("lib/baz.jar"));
+    var foo = Files.createDirectories(base.resolve("src/foo"));
+    Files.writeString(
+        foo.resolve("module-info.java"), "module foo { requires bar; requires baz; }");
+    var properties = new Properties();
+    properties.setProperty("bach.maven.local.repository", m2.toString());
+    properties.setProperty("bach.offline", "true");
+    try (var writer = Files.newBufferedWriter(base.resolve("bach.properties"))) {
+      properties.store(writer, null);
+    }
+    var bach = Util.isolate(new Bach(true, base), base);
+    var cache = Files.createDirectories(bach.project.cache);
+    Store.writeProperties(
+        cache.resolve("module-maven.index"), table("bar", "com.example:bar"), null);
+    Store.writeProperties(cache.resolve("module-version.index"), table("bar", "1"), null);
+    var out = new ArrayList<String>();
+    bach.log.out = out::add;
+
+    bach.project.assembleExternalModules();
+    assertTrue(out.contains("External module baz found in " + bach.project.lib), out.toString());
+    var target = bach.project.cachedModules.resolve("bar-1.jar");
+    assertTrue(out.stream().anyMatch(line -> line.startsWith("Linked " + target)), out.toString());
+    assertEquals(Files.size(jar), Files.size(target));
+    assertEquals(List.of("bar-1.jar"), Util.treeWalk(bach.project.cachedModules));
+  }
+
+  @Test
+  void realmRequiresExternalModulesOnlyForUndeclaredModules(@TempDir Path base) throws Exception {
+    var foo = Files.createDirectories(base.resolve("src/main/java/foo"));
+    var bar = Files.createDirectories(base.resolve("src/main/java/bar"));
+    Files.writeString(foo.resolve("module-info.java"), "module foo { requires java.sql; }");
+    Files.writeString(bar.resolve("module-info.java"), "module bar { requires foo; }");
+    var test = Files.createDirectories(base.resolve("src/test/java/bar"));
+    Files.writeString(test.resolve("module-info.java"), "open module bar { requires junit; }");
+    var project = Util.isolate(new Bach(true, base), base).project;
+    assertFalse(project.main.requiresExternalModules());
+    assertTrue(project.test.requiresExternalModules());
+  }
+
+  /** Filter resolution lines, the format check logs concurrently. */
+  private static List<String> resolution(List<String> lines) {
+    return lines.stream()
+        .filter(line -> line.matches("(External module names: |Downloaded junit|Resolved ).+"))
+        .collect(Collectors.toList());
+  }
+
+  @Test
+  void localRepositoryDoesNotFindArtifactsWithoutVersion(@TempDir Path base) throws Exception {
+    var m2 = base.resolve("m2");
+    jar(base, "bar", m2.resolve("com/example/bar/1/bar-1.jar"));
+    var repository = new LocalRepository(m2);
+    assertNull(repository.find("com.example", "bar", null));
+    assertEquals(
+        m2.resolve("com/example/bar/1/bar-1.jar"), repository.find("com.example", "bar", "1"));
+  }
+
+  private static Properties table(String key, String value) {
+    var properties = new Properties();
+    properties.setProperty(key, value);
+    return properties;
+  }
+
+  /** Compile and package an empty module. */
+  private static Path jar(Path temp, String module, Path jar) throws Exception {
+    var source = Files.createDirectories(temp.resolve("jar-sources").resolve(module));
+    var classes = temp.resolve("jar-classes").resolve(module);
+    Files.writeString(source.resolve("module-info.java"), "module " + module + " {}");
+    var javac = ToolProvider.findFirst("javac").orElseThrow();
+    var info = source.resolve("module-info.java").toString();
+    assertEquals(0, javac.run(System.out, System.err, "-d", classes.toString(), info));
+    Files.createDirectories(jar.getParent());
+    var tool = ToolProvider.findFirst("jar").orElseThrow();
+    var args = List.of("--create", "--file", jar.toString(), "-C", classes.toString(), ".");
+    assertEquals(0, tool.run(System.out, System.err, args.toArray(String[]::new)));
+    return jar;
+  }
+
   @Test
   @DisabledIfSystemProperty(named = "bach.offline", matches = "true")
   void programExternals(@TempDir Path workspace) throws Exception {
@@ -130,7 +321,7 @@ class ProjectTests {
     var base = workspace.resolve(demo.getFileName());
     Bach.Util.treeCopy(demo, base);
 
-    var bach = new Bach(true, base);
+    var bach = Util.isolate(new Bach(true, base), workspace);
     assertNotNull(bach.properties.getProperty("module.junit3"));
 
     var out = new ArrayList<String>();
@@ -139,23 +330,20 @@ class ProjectTests {
     bach.log.err = err::add;
 
     bach.project.assemble();
+    assertEquals("assemble()", out.get(0));
     assertLinesMatch(
         List.of(
-            "assemble()",
-            ">> FORMAT >>",
             "External module names: [junit3]",
-            ">> RESOLVE >>",
             "Downloaded junit-3.7.jar successfully.",
             "Resolved " + base.resolve(Path.of(".bach/modules/junit-3.7.jar"))),
-        out);
+        resolution(out));
     assertTrue(err.isEmpty());
 
     out.clear();
     bach.properties.remove("module.junit3");
     bach.project.assemble();
-    assertLinesMatch(
-        List.of("assemble()", ">> FORMAT >>", "External module names: [junit3]", ">> RESOLVE >>"),
-        out);
+    assertEquals("assemble()", out.get(0));
+    assertLinesMatch(List.of("External module names: [junit3]"), resolution(out));
     assertLinesMatch(List.of("External module not mapped: junit3"), err);
   }
 }
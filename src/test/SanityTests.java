@@ -1,7 +1,12 @@
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertLinesMatch;
 
+import com.sun.net.httpserver.HttpServer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
@@ -9,6 +14,44 @@ import org.junit.jupiter.api.io.TempDir;
 class SanityTests {
   @Test
   void openAndRunBachJavaInJShellReturnsZero(@TempDir Path temp) throws Exception {
+    assertLinesMatch(List.of(), jshell(temp, "var bach = new Bach()"));
+  }
+
+  @Test
+  void downloadInJShellFallsBackToUrlConnection(@TempDir Path temp) throws Exception {
+    var server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    server.createContext(
+        "/",
+        exchange -> {
+          var bytes = "hello".getBytes();
+          exchange.sendResponseHeaders(200, bytes.length);
+          exchange.getResponseBody().write(bytes);
+          exchange.close();
+        });
+    server.start();
+    try {
+      var uri = "http://127.0.0.1:" + server.getAddress().getPort() + "/hello.txt";
+      var base = temp.toString().replace('\\', '/');
+      // one snippet: each top-level snippet costs jshell another analysis pass
+      var config =
+          String.format(
+              "p -> p == Bach.Property.CACHE_HOME ? \"%s/cache-home\""
+                  + " : p == Bach.Property.TOOL_HOME ? \"%s/tool-home\" : p.defaultValue",
+              base, base);
+      var download =
+          String.format(
+              "Bach.Util.download(Bach.downloader(%s), __ -> {}, false, Path.of(\"%s/target\"),"
+                  + " URI.create(\"%s\"))",
+              config, base, uri);
+      var out = jshell(temp, "System.out.println(Files.readString(" + download + "))");
+      assertLinesMatch(List.of("hello"), out);
+    } finally {
+      server.stop(0);
+    }
+  }
+
+  /** Open Bach.java in jshell, evaluate the snippets, and return the standard output lines. */
+  private static List<String> jshell(Path temp, String... snippets) throws Exception {
     var builder = new ProcessBuilder("jshell");
     builder.command().add("--execution=local");
     builder.command().add("-"); // Standard input, without interactive I/O.
@@ -16,7 +59,9 @@ class SanityTests {
     var out = temp.resolve("out.txt");
     var process = builder.redirectError(err.toFile()).redirectOutput(out.toFile()).start();
     process.getOutputStream().write("/open src/bach/Bach.java\n".getBytes());
-    process.getOutputStream().write("var bach = new Bach()\n".getBytes());
+    for (var snippet : snippets) {
+      process.getOutputStream().write((snippet + "\n").getBytes());
+    }
     process.getOutputStream().write("/exit\n".getBytes());
     process.getOutputStream().flush();
     if (!process.waitFor(30, TimeUnit.SECONDS)) {
@@ -24,8 +69,8 @@ class SanityTests {
     }
     var code = process.exitValue();
     assertEquals(0, code, Files.readString(err));
-    assertEquals(0, Files.size(out), Files.readString(out));
     assertEquals(0, Files.size(err), Files.readString(err));
+    return Files.readAllLines(out);
   }
 
   @Test
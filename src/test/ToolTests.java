@@ -5,6 +5,7 @@ import java.nio.file.Path;
 import java.util.List;
 import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
 class ToolTests {
 
@@ -13,8 +14,8 @@ class ToolTests {
 
     @Test
     @SwallowSystem
-    void version(SwallowSystem.Streams streams) throws Exception {
-      var bach = new Bach(true, Path.of(""));
+    void version(SwallowSystem.Streams streams, @TempDir Path temp) throws Exception {
+      var bach = Util.isolate(new Bach(true, Path.of("")), temp);
       bach.properties.setProperty(Bach.Property.RUN_REDIRECT_TYPE.key, "FILE");
 
       Bach.Tool.format(bach, "--version");
@@ -32,8 +33,8 @@ class ToolTests {
 
     @Test
     @SwallowSystem
-    void help(SwallowSystem.Streams streams) throws Exception {
-      var bach = new Bach(true, Path.of(""));
+    void help(SwallowSystem.Streams streams, @TempDir Path temp) throws Exception {
+      var bach = Util.isolate(new Bach(true, Path.of("")), temp);
       bach.properties.setProperty(Bach.Property.RUN_REDIRECT_TYPE.key, "FILE");
 
       Bach.Tool.junit(bach, "--help");
@@ -56,8 +57,8 @@ class ToolTests {
 
     @Test
     @SwallowSystem
-    void version(SwallowSystem.Streams streams) throws Exception {
-      var bach = new Bach(true, Path.of(""));
+    void version(SwallowSystem.Streams streams, @TempDir Path temp) throws Exception {
+      var bach = Util.isolate(new Bach(true, Path.of("")), temp);
       bach.properties.setProperty(Bach.Property.RUN_REDIRECT_TYPE.key, "FILE");
 
       Bach.Tool.maven(bach, "--version");
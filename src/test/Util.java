@@ -5,6 +5,7 @@ import java.nio.file.attribute.AclEntryPermission;
 import java.nio.file.attribute.AclEntryType;
 import java.nio.file.attribute.AclFileAttributeView;
 import java.nio.file.attribute.PosixFilePermissions;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.EnumSet;
 import java.util.List;
@@ -14,6 +15,47 @@ import org.junit.jupiter.api.condition.OS;
 
 interface Util {
 
+  /** Point cache and tool home of the instance into the temporary directory, not the user's. */
+  static Bach isolate(Bach bach, Path temp) {
+    bach.properties.setProperty(
+        Bach.Property.CACHE_HOME.key, temp.resolve("cache-home").toString());
+    bach.properties.setProperty(Bach.Property.TOOL_HOME.key, temp.resolve("tool-home").toString());
+    return bach;
+  }
+
+  /** Create a downloader keeping its lock files below the temporary directory. */
+  static Downloader downloader(Path temp, int limit, Store store, Duration ttl) {
+    return Bach.downloader(
+        property -> {
+          switch (property) {
+            case DOWNLOAD_HOST_LIMIT:
+              return String.valueOf(limit);
+            case DOWNLOAD_TTL:
+              return ttl.toString();
+            case CACHE_HOME:
+              return temp.resolve("cache-home").toString();
+            default:
+              return property.defaultValue;
+          }
+        },
+        store);
+  }
+
+  /** Create a configured downloader with its tool and cache home below the temporary directory. */
+  static Downloader downloader(Path temp) {
+    return Bach.downloader(
+        property -> {
+          switch (property) {
+            case TOOL_HOME:
+              return temp.resolve("tool-home").toString();
+            case CACHE_HOME:
+              return temp.resolve("cache-home").toString();
+            default:
+              return property.defaultValue;
+          }
+        });
+  }
+
   /** Platform-agnostic {@code chmod} implementation. */
   static void chmod(Path path, boolean r, boolean w, boolean x) throws Exception {
     if (OS.WINDOWS.isCurrentOs()) {
@@ -6,11 +6,20 @@ import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.io.File;
+import java.io.IOException;
 import java.net.URI;
+import java.nio.channels.FileChannel;
+import java.nio.channels.OverlappingFileLockException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.condition.DisabledIfSystemProperty;
@@ -28,7 +37,7 @@ class UtilTests {
   @ParameterizedTest
   @ValueSource(strings = {"a.b", "a.b#c", "a.b?c", "https://host/path/../a.b#c?d=e&more=b.a"})
   void extractFileName(String uri) {
-    assertEquals("a.b", Bach.Util.extractFileName(URI.create(uri)));
+    assertEquals("a.b", Downloader.extractFileName(URI.create(uri)));
   }
 
   @DisabledIfSystemProperty(named = "bach.offline", matches = "true")
@@ -37,18 +46,21 @@ class UtilTests {
   void downloadLicenseFromApacheOrg(String protocol, @TempDir Path temp) throws Exception {
     var log = new ArrayList<String>();
     var uri = URI.create(protocol + "://www.apache.org/licenses/LICENSE-2.0.txt");
-    var first = Bach.Util.download(log::add, false, temp, uri);
+    var downloader = Util.downloader(temp);
+    var first = Bach.Util.download(downloader, log::add, false, temp, uri);
     assertTrue(Files.readString(first).contains("Apache License"));
-    var second = Bach.Util.download(log::add, false, temp, uri);
+    var second = Bach.Util.download(downloader, log::add, false, temp, uri);
     assertEquals(first, second);
     Files.writeString(first, "Lorem ipsum...");
     assertFalse(Files.readString(first).contains("Apache License"));
-    var third = Bach.Util.download(log::add, false, temp, uri);
+    var third = Bach.Util.download(downloader, log::add, false, temp, uri);
     assertEquals(first, third);
-    var forth = Bach.Util.download(log::add, true, temp, uri);
+    var forth = Bach.Util.download(downloader, log::add, true, temp, uri);
     assertEquals(first, forth);
     Files.delete(first);
-    var e = assertThrows(Exception.class, () -> Bach.Util.download(log::add, true, temp, uri));
+    var e =
+        assertThrows(
+            Exception.class, () -> Bach.Util.download(downloader, log::add, true, temp, uri));
     assertEquals("Target is missing and being offline: " + first, e.getMessage());
     assertLinesMatch(
         List.of(
@@ -75,11 +87,14 @@ class UtilTests {
   }
 
   @Test
-  void downloadRelativeUriThrows() {
+  void downloadRelativeUriThrows(@TempDir Path temp) {
     var log = new ArrayList<String>();
+    var downloader = Util.downloader(temp);
     var uri = URI.create("void");
     var base = Path.of(".");
-    var e = assertThrows(Exception.class, () -> Bach.Util.download(log::add, true, base, uri));
+    var e =
+        assertThrows(
+            Exception.class, () -> Bach.Util.download(downloader, log::add, true, base, uri));
     assertTrue(e.getMessage().contains("URI is not absolute"));
     assertLinesMatch(List.of("download(" + uri + ")"), log);
   }
@@ -148,10 +163,10 @@ class UtilTests {
 
   @Test
   void isJavaFile() {
-    assertFalse(Bach.Util.isJavaFile(Path.of("")));
-    assertFalse(Bach.Util.isJavaFile(Path.of("a/b")));
-    assertTrue(Bach.Util.isJavaFile(Path.of("src/test/UtilTests.java")));
-    assertFalse(Bach.Util.isJavaFile(Path.of("src/test-resources/Util.isJavaFile.java")));
+    assertFalse(ModuleInfo.isJavaFile(Path.of("")));
+    assertFalse(ModuleInfo.isJavaFile(Path.of("a/b")));
+    assertTrue(ModuleInfo.isJavaFile(Path.of("src/test/UtilTests.java")));
+    assertFalse(ModuleInfo.isJavaFile(Path.of("src/test-resources/Util.isJavaFile.java")));
   }
 
   @Test
@@ -168,22 +183,132 @@ class UtilTests {
 
   @Test
   void unzip(@TempDir Path temp) throws Exception {
+    var cache = temp.resolve("cache");
     var zip = Path.of("demo", "scaffold.zip");
     var one = Files.createDirectories(temp.resolve("one"));
-    var home1 = Bach.Util.unzip(zip, one);
+    var home1 = Bach.Util.unzip(cache, zip, one);
     assertEquals(one, home1);
-    assertLinesMatch(
-        Files.readAllLines(Path.of("src", "test-resources", "demo", "scaffold.clean.txt")),
-        Util.treeWalk(home1));
+    // the marker file of the extraction is stored in the destination directory
+    var expected = new ArrayList<>(List.of(".scaffold.zip.unzip"));
+    expected.addAll(
+        Files.readAllLines(Path.of("src", "test-resources", "demo", "scaffold.clean.txt")));
+    assertLinesMatch(expected, Util.treeWalk(home1));
 
     var two = Files.createDirectories(temp.resolve("two"));
     var zip2 = Files.copy(zip, two.resolve(zip.getFileName()));
-    var home2 = Bach.Util.unzip(zip2);
+    var home2 = Bach.Util.unzip(cache, zip2);
     assertEquals(two, home2);
     Files.delete(zip2);
+    assertLinesMatch(expected, Util.treeWalk(home2));
+  }
+
+  @Test
+  void unzipArchiveWithSingleRootDirectoryOnce(@TempDir Path temp) throws Exception {
+    var cache = temp.resolve("cache");
+    var zip = temp.resolve("tool.zip");
+    try (var stream = new ZipOutputStream(Files.newOutputStream(zip))) {
+      stream.putNextEntry(new ZipEntry("tool-1/"));
+      stream.putNextEntry(new ZipEntry("tool-1/bin/tool"));
+      stream.write("echo tool".getBytes());
+    }
+    var destination = temp.resolve("home");
+    var home = Bach.Util.unzip(cache, zip, destination);
+    assertEquals(destination.resolve("tool-1"), home);
+    Files.delete(home.resolve("bin/tool"));
+    assertEquals(home, Bach.Util.unzip(cache, zip, destination));
+    assertTrue(Files.notExists(home.resolve("bin/tool")), "unchanged archive was extracted again");
+    Files.setLastModifiedTime(zip, FileTime.fromMillis(System.currentTimeMillis() + 2000));
+    assertEquals(home, Bach.Util.unzip(cache, zip, destination));
+    assertTrue(Files.notExists(home.resolve("bin/tool")), "touched archive was extracted again");
+    try (var stream = new ZipOutputStream(Files.newOutputStream(zip))) {
+      stream.putNextEntry(new ZipEntry("tool-1/"));
+      var entry = new ZipEntry("tool-1/bin/tool");
+      entry.setLastModifiedTime(FileTime.fromMillis(946684800000L));
+      stream.putNextEntry(entry);
+      stream.write("echo tool 2".getBytes());
+    }
+    assertEquals(home, Bach.Util.unzip(cache, zip, destination));
+    assertEquals("echo tool 2", Files.readString(home.resolve("bin/tool")));
+    assertEquals(946684800000L, Files.getLastModifiedTime(home.resolve("bin/tool")).toMillis());
     assertLinesMatch(
-        Files.readAllLines(Path.of("src", "test-resources", "demo", "scaffold.clean.txt")),
-        Util.treeWalk(home2));
+        List.of(".tool.zip.unzip", "tool-1", "tool-1/bin", "tool-1/bin/tool"),
+        Util.treeWalk(destination));
+  }
+
+  @Test
+  void unzipMergesIntoExistingDirectoryNotExtractedBefore(@TempDir Path temp) throws Exception {
+    var cache = temp.resolve("cache");
+    var zip = temp.resolve("tool.zip");
+    try (var stream = new ZipOutputStream(Files.newOutputStream(zip))) {
+      stream.putNextEntry(new ZipEntry("tool-1/"));
+      stream.putNextEntry(new ZipEntry("tool-1/bin/tool"));
+      stream.write("echo tool".getBytes());
+    }
+    var destination = temp.resolve("home");
+    var notes = Files.createDirectories(destination.resolve("tool-1")).resolve("notes.txt");
+    Files.writeString(notes, "mine");
+    var home = Bach.Util.unzip(cache, zip, destination);
+    assertEquals(destination.resolve("tool-1"), home);
+    assertEquals("mine", Files.readString(notes));
+    assertEquals("echo tool", Files.readString(home.resolve("bin/tool")));
+  }
+
+  @Test
+  void unzipRejectsEntriesEscapingDestination(@TempDir Path temp) throws Exception {
+    var cache = temp.resolve("cache");
+    var zip = temp.resolve("slip.zip");
+    try (var stream = new ZipOutputStream(Files.newOutputStream(zip))) {
+      stream.putNextEntry(new ZipEntry("../evil.txt"));
+      stream.write("evil".getBytes());
+    }
+    var destination = temp.resolve("home");
+    var e = assertThrows(IOException.class, () -> Bach.Util.unzip(cache, zip, destination));
+    assertEquals("Zip entry escapes target directory: ../evil.txt", e.getMessage());
+    assertTrue(Files.notExists(temp.resolve("evil.txt")));
+    assertTrue(Files.notExists(destination.resolve("evil.txt")));
+  }
+
+  @Test
+  void pathLockIsExclusive(@TempDir Path temp) throws Exception {
+    var cache = temp.resolve("cache");
+    var path = temp.resolve("guarded");
+    var acquired = new CountDownLatch(1);
+    var thread =
+        new Thread(
+            () -> {
+              try {
+                PathLock.acquire(cache, path).release();
+                acquired.countDown();
+              } catch (Exception e) {
+                throw new AssertionError(e);
+              }
+            });
+    var lock = PathLock.acquire(cache, path);
+    try {
+      // the virtual machine holds the file lock, no other channel may lock it
+      try (var channel = FileChannel.open(PathLock.file(cache, path), StandardOpenOption.WRITE)) {
+        assertThrows(OverlappingFileLockException.class, channel::tryLock);
+      }
+      thread.start();
+      assertFalse(acquired.await(200, TimeUnit.MILLISECONDS));
+    } finally {
+      lock.release();
+    }
+    assertTrue(acquired.await(5, TimeUnit.SECONDS));
+    thread.join();
+  }
+
+  @Test
+  void pathLockIsReentrantAndDeletesItsFile(@TempDir Path temp) throws Exception {
+    var cache = temp.resolve("cache");
+    var path = temp.resolve("guarded");
+    var outer = PathLock.acquire(cache, path);
+    var inner = PathLock.acquire(cache, path);
+    inner.release();
+    assertTrue(Files.exists(PathLock.file(cache, path)));
+    outer.release();
+    assertTrue(Files.notExists(PathLock.file(cache, path)));
+    assertThrows(IllegalStateException.class, outer::release);
   }
 
   @Nested